@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.base.Strings;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Person;
+import sonia.scm.search.Id;
+import sonia.scm.search.Index;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+@SuppressWarnings({"UnstableApiUsage", "unchecked"})
+final class BenchmarkData {
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Creates a linear history of changesets, newest first.
+   */
+  static List<Changeset> changesets(int count, int descriptionSize) {
+    List<Changeset> changesets = new ArrayList<>(count);
+    for (int i = count - 1; i >= 0; i--) {
+      Changeset changeset = new Changeset(
+        revision(i), (long) i, Person.toPerson("Trillian <trillian@hitchhiker.com>"), description(i, descriptionSize)
+      );
+      if (i > 0) {
+        changeset.setParents(Collections.singletonList(revision(i - 1)));
+      }
+      changesets.add(changeset);
+    }
+    return changesets;
+  }
+
+  static String revision(int i) {
+    return Strings.padStart(Integer.toHexString(i), 40, '0');
+  }
+
+  private static String description(int i, int size) {
+    StringBuilder builder = new StringBuilder(size);
+    builder.append("commit ").append(i).append(' ');
+    while (builder.length() < size) {
+      builder.append("implement heart of gold ");
+    }
+    builder.setLength(size);
+    return builder.toString();
+  }
+
+  /**
+   * Creates an index, which keeps its documents in a map. The search api is implemented with a dynamic proxy,
+   * so the stand-in does not have to follow every change of the interface.
+   */
+  static Index<IndexedChangeset> inMemoryIndex(Map<Id<IndexedChangeset>, IndexedChangeset> documents) {
+    Object deleteBy = proxy(Index.DeleteBy.class, (self, method, args) -> {
+      if ("execute".equals(method.getName())) {
+        documents.clear();
+        return null;
+      }
+      return self;
+    });
+    Object deleter = proxy(Index.Deleter.class, (self, method, args) -> {
+      switch (method.getName()) {
+        case "byId":
+          documents.remove(args[0]);
+          return null;
+        case "all":
+          documents.clear();
+          return null;
+        default:
+          return deleteBy;
+      }
+    });
+    return proxy(Index.class, (self, method, args) -> {
+      switch (method.getName()) {
+        case "store":
+          documents.put((Id<IndexedChangeset>) args[0], (IndexedChangeset) args[2]);
+          return null;
+        case "delete":
+          return deleter;
+        default:
+          return null;
+      }
+    });
+  }
+
+  static Map<Id<IndexedChangeset>, IndexedChangeset> documents() {
+    return new ConcurrentHashMap<>();
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    InvocationHandler withObjectMethods = (self, method, args) -> {
+      if (method.getDeclaringClass() != Object.class) {
+        return handler.invoke(self, method, args);
+      }
+      switch (method.getName()) {
+        case "equals":
+          return self == args[0];
+        case "hashCode":
+          return System.identityHashCode(self);
+        default:
+          return type.getSimpleName();
+      }
+    };
+    return (T) Proxy.newProxyInstance(BenchmarkData.class.getClassLoader(), new Class<?>[]{type}, withObjectMethods);
+  }
+}
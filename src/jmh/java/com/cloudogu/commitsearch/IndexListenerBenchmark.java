@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import org.mockito.MockSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.HookChangesetBuilder;
+import sonia.scm.repository.api.HookContext;
+import sonia.scm.store.InMemoryByteDataStoreFactory;
+import sonia.scm.web.security.AdministrationContext;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the time the plugin adds to the post receive hook of a push, until the index task is queued.
+ * The changesets of the hook event are created lazily on every iteration, like a repository reads them during
+ * the walk, so the numbers are a lower bound for a real repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexListenerBenchmark {
+
+  @Param({"10000"})
+  private int commitCount;
+
+  @Param({"true", "false"})
+  private boolean hookChangesets;
+
+  private IndexListener listener;
+  private PostReceiveRepositoryHookEvent event;
+
+  @Setup
+  public void setUp() {
+    Repository repository = RepositoryTestData.createHeartOfGold();
+    repository.setId("hog");
+
+    IndexConfiguration configuration = new IndexConfiguration();
+    configuration.setHookChangesets(hookChangesets);
+    // submit directly, the coalescing window would only defer the task
+    configuration.setPushCoalesceWindow(0);
+    configuration.setStatusFlushInterval(0);
+
+    // stub only mocks do not record the invocations of millions of benchmark iterations
+    IndexTaskDispatcher dispatcher = mock(IndexTaskDispatcher.class, stubOnly());
+    IndexStatusStore indexStatusStore = new IndexStatusStore(new InMemoryByteDataStoreFactory(), configuration);
+    indexStatusStore.update(repository, BenchmarkData.revision(commitCount));
+    PushCoalescer pushCoalescer = new PushCoalescer(dispatcher, indexStatusStore, configuration);
+
+    listener = new IndexListener(
+      mock(AdministrationContext.class, stubOnly()),
+      mock(RepositoryManager.class, stubOnly()),
+      mock(StartupIndexScheduler.class, stubOnly()),
+      pushCoalescer,
+      dispatcher,
+      mock(ConsistencySweep.class, stubOnly()),
+      indexStatusStore,
+      configuration
+    );
+
+    HookChangesetBuilder changesetProvider = mock(HookChangesetBuilder.class, stubOnly());
+    Iterable<Changeset> added = () -> BenchmarkData.changesets(commitCount, 64).iterator();
+    when(changesetProvider.getChangesets()).thenReturn(added);
+    when(changesetProvider.getRemovedChangesets()).thenReturn(Collections.emptyList());
+    HookContext context = mock(HookContext.class, stubOnly());
+    when(context.getChangesetProvider()).thenReturn(changesetProvider);
+    event = mock(PostReceiveRepositoryHookEvent.class, stubOnly());
+    when(event.getRepository()).thenReturn(repository);
+    when(event.getContext()).thenReturn(context);
+  }
+
+  private static MockSettings stubOnly() {
+    return withSettings().stubOnly();
+  }
+
+  @Benchmark
+  public void push() {
+    listener.handle(event);
+  }
+}
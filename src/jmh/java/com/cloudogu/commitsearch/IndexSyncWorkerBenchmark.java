@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Answers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.ChangesetsCommandBuilder;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.LogCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.search.SearchEngine;
+import sonia.scm.store.InMemoryByteDataStoreFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the incremental update of {@link IndexSyncWorker} with a full (paged) reindex of the same history.
+ * The repository is a mock, so the numbers show the cost of the plugin, not of the repository implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IndexSyncWorkerBenchmark {
+
+  @Param({"1000", "100000"})
+  private int commitCount;
+
+  @Param({"64", "4096"})
+  private int descriptionSize;
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  private List<Changeset> changesets;
+  private IndexStatusStore indexStatusStore;
+  private IndexSyncWorker worker;
+  private UpdatedChangesets updatedChangesets;
+
+  @Setup
+  public void setUp() throws IOException {
+    repository.setId("hog");
+    changesets = BenchmarkData.changesets(commitCount, descriptionSize);
+    IndexConfiguration configuration = new IndexConfiguration();
+    // the oldest changeset is indexed, all later ones were pushed; large pushes are passed by id,
+    // so the changesets are read from the repository during the update
+    updatedChangesets = UpdatedChangesets.of(
+      changesets.subList(0, changesets.size() - 1), Collections.emptyList(), configuration.getInlineLimit()
+    );
+
+    RepositoryService repositoryService = mock(RepositoryService.class);
+    when(repositoryService.getRepository()).thenReturn(repository);
+    when(repositoryService.isSupported(Command.CHANGESETS)).thenReturn(true);
+    when(repositoryService.isSupported(Command.LOG)).thenReturn(true);
+
+    ChangesetsCommandBuilder changesetsCommand = mock(ChangesetsCommandBuilder.class);
+    when(changesetsCommand.getLatestChangeset()).thenReturn(Optional.of(changesets.get(0)));
+    when(changesetsCommand.getChangesets()).thenReturn(changesets);
+    when(repositoryService.getChangesetsCommand()).thenReturn(changesetsCommand);
+
+    when(repositoryService.getLogCommand()).thenReturn(logCommand(configuration.getPageSize()));
+
+    indexStatusStore = new IndexStatusStore(new InMemoryByteDataStoreFactory(), configuration);
+    IndexMetrics metrics = new IndexMetrics(new SimpleMeterRegistry());
+    Indexer indexer = new Indexer(BenchmarkData.inMemoryIndex(BenchmarkData.documents()), repositoryService, configuration, metrics);
+    IndexMigration migration = new IndexMigration(configuration);
+    SearchEngine searchEngine = mock(SearchEngine.class);
+    worker = new IndexSyncWorker(
+      new IndexingContext(repositoryService, indexStatusStore, indexer, configuration, metrics, migration, searchEngine,
+        mock(IndexTaskDispatcher.class))
+    );
+  }
+
+  private LogCommandBuilder logCommand(int pageSize) throws IOException {
+    LogCommandBuilder logCommand = mock(LogCommandBuilder.class, Answers.RETURNS_SELF);
+    AtomicInteger start = new AtomicInteger();
+    when(logCommand.setPagingStart(anyInt())).thenAnswer(ic -> {
+      start.set(ic.getArgument(0));
+      return logCommand;
+    });
+    AtomicReference<String> ancestor = new AtomicReference<>();
+    when(logCommand.setAncestorChangeset(anyString())).thenAnswer(ic -> {
+      ancestor.set(ic.getArgument(0));
+      return logCommand;
+    });
+    AtomicReference<String> startChangeset = new AtomicReference<>();
+    when(logCommand.setStartChangeset(anyString())).thenAnswer(ic -> {
+      startChangeset.set(ic.getArgument(0));
+      return logCommand;
+    });
+    Map<String, Changeset> byId = changesets.stream().collect(Collectors.toMap(Changeset::getId, c -> c));
+    when(logCommand.getChangeset(anyString())).thenAnswer(ic -> byId.get(ic.<String>getArgument(0)));
+    when(logCommand.getChangesets()).thenAnswer(ic -> {
+      // the history is linear, so the changesets which are not reachable from the ancestor are the newer ones
+      int first = startChangeset.get() != null ? changesets.indexOf(byId.get(startChangeset.get())) : 0;
+      int last = ancestor.get() != null ? changesets.indexOf(byId.get(ancestor.get())) : changesets.size();
+      int size = Math.max(last - first, 0);
+      int from = first + Math.min(start.get(), size);
+      int to = Math.min(from + pageSize, first + size);
+      // the worker requests a new log command for every page
+      start.set(0);
+      startChangeset.set(null);
+      ancestor.set(null);
+      return new ChangesetPagingResult(size, changesets.subList(from, to));
+    });
+    return logCommand;
+  }
+
+  @Setup(Level.Invocation)
+  public void resetStatus() {
+    // the index knows the oldest changeset, so every other changeset of the history is an update
+    indexStatusStore.update(repository, BenchmarkData.revision(0));
+  }
+
+  @Benchmark
+  public void incremental() {
+    worker.ensureIndexIsUpToDate(updatedChangesets);
+  }
+
+  @Benchmark
+  public void full() {
+    worker.reIndex();
+  }
+}
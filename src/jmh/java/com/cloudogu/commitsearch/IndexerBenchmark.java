@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.search.Id;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Writes and deletes of {@link Indexer} against an in memory index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IndexerBenchmark {
+
+  @Param({"1000", "100000"})
+  private int commitCount;
+
+  @Param({"64", "4096"})
+  private int descriptionSize;
+
+  private List<Changeset> changesets;
+  private List<String> ids;
+  private Map<Id<IndexedChangeset>, IndexedChangeset> documents;
+  private Indexer indexer;
+
+  @Setup
+  public void setUp() {
+    changesets = BenchmarkData.changesets(commitCount, descriptionSize);
+    ids = changesets.stream().map(Changeset::getId).collect(Collectors.toList());
+    documents = BenchmarkData.documents();
+    RepositoryService repositoryService = mock(RepositoryService.class);
+    when(repositoryService.getRepository()).thenReturn(RepositoryTestData.createHeartOfGold());
+    indexer = new Indexer(BenchmarkData.inMemoryIndex(documents), repositoryService, new IndexConfiguration(), new IndexMetrics(new SimpleMeterRegistry()));
+  }
+
+  @Benchmark
+  public int store(EmptyIndex emptyIndex) {
+    indexer.store(changesets);
+    return documents.size();
+  }
+
+  @Benchmark
+  public int delete(FilledIndex filledIndex) {
+    indexer.delete(ids);
+    return documents.size();
+  }
+
+  /**
+   * Starts every store with an empty index.
+   */
+  @State(Scope.Benchmark)
+  public static class EmptyIndex {
+
+    @Setup(Level.Invocation)
+    public void clear(IndexerBenchmark benchmark) {
+      benchmark.documents.clear();
+    }
+  }
+
+  /**
+   * Starts every delete with an index, which contains all changesets.
+   */
+  @State(Scope.Benchmark)
+  public static class FilledIndex {
+
+    @Setup(Level.Invocation)
+    public void fill(IndexerBenchmark benchmark) {
+      benchmark.documents.clear();
+      benchmark.indexer.store(benchmark.changesets);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.InternalRepositoryException;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Brings the index up to date by comparing the heads of the branches with the heads of the last index update.
+ * Only the changesets of branches with a new head are read.
+ */
+class BranchSync {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BranchSync.class);
+
+  private final RepositoryService repositoryService;
+  private final Repository repository;
+  private final Indexer indexer;
+  private final ChangesetPager pager;
+
+  BranchSync(RepositoryService repositoryService, Indexer indexer, int pageSize) {
+    this.repositoryService = repositoryService;
+    this.repository = repositoryService.getRepository();
+    this.indexer = indexer;
+    this.pager = new ChangesetPager(repositoryService, pageSize);
+  }
+
+  /**
+   * The sync reads the changesets between two heads with ancestor ranges, so the log command has to support them.
+   * Otherwise plain fast-forwards would look like rewritten histories and changesets which still exist would be removed.
+   */
+  static boolean isSupported(RepositoryService repositoryService) {
+    return repositoryService.isSupported(Command.BRANCHES)
+      && ChangesetPager.isSupported(repositoryService)
+      && ChangesetPager.isAncestorSupported(repositoryService);
+  }
+
+  Heads heads() {
+    try {
+      List<Branch> branches = repositoryService.getBranchesCommand()
+        .setDisableCache(true)
+        .getBranches()
+        .getBranches();
+      Map<String, String> revisions = new LinkedHashMap<>();
+      String defaultBranch = null;
+      for (Branch branch : branches) {
+        revisions.put(branch.getName(), branch.getRevision());
+        if (branch.isDefaultBranch()) {
+          defaultBranch = branch.getName();
+        }
+      }
+      return new Heads(revisions, defaultBranch);
+    } catch (IOException e) {
+      throw new InternalRepositoryException(repository, "failed to read branches", e);
+    }
+  }
+
+  /**
+   * Stores the changesets of every branch, which has moved since the previous heads, and deletes the changesets,
+   * which were only reachable from deleted branches or from the previous head of a rewritten branch.
+   *
+   * @param previous heads of the last index update
+   * @param current current heads
+   * @param covered ids of changesets, which are already stored, e.g. from a hook event. A branch whose new head
+   *                is one of them is skipped.
+   */
+  void sync(Map<String, String> previous, Heads current, Set<String> covered) {
+    String previousDefaultHead = existing(previous.get(current.getDefaultBranch()));
+    VisitedChangesets visited = new VisitedChangesets();
+    Map<String, String> rewritten = new LinkedHashMap<>();
+    for (Map.Entry<String, String> head : current.getRevisions().entrySet()) {
+      String branch = head.getKey();
+      String before = previous.get(branch);
+      if (head.getValue().equals(before) || covered.contains(head.getValue())) {
+        continue;
+      }
+      String ancestor = before != null ? existing(before) : null;
+      if (ancestor == null) {
+        ancestor = previousDefaultHead;
+      }
+      LOG.debug("branch {} of repository {} moved from {} to {}, store new changesets", branch, repository, before, head.getValue());
+      pager.forEachPageOfBranch(branch, ancestor, page -> indexer.store(visited.filter(page)));
+      if (before != null && before.equals(ancestor) && !isFastForward(before, head.getValue())) {
+        rewritten.put(branch, before);
+      }
+    }
+    for (Map.Entry<String, String> head : rewritten.entrySet()) {
+      LOG.debug("history of branch {} of repository {} was rewritten, remove changesets of previous head", head.getKey(), repository);
+      removeOrphans(head.getKey(), head.getValue(), current);
+    }
+    for (Map.Entry<String, String> head : previous.entrySet()) {
+      if (!current.getRevisions().containsKey(head.getKey())) {
+        LOG.debug("branch {} of repository {} was deleted, remove its changesets", head.getKey(), repository);
+        removeOrphans(head.getKey(), head.getValue(), current);
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true}, if the previous head is still reachable from the new head of the branch.
+   */
+  private boolean isFastForward(String before, String after) {
+    AtomicBoolean unreachable = new AtomicBoolean();
+    pager.forEachPageOfChangeset(before, after, page -> unreachable.set(true));
+    return !unreachable.get();
+  }
+
+  /**
+   * Deletes the changesets, which were reachable from the given previous head of the branch,
+   * but are no longer reachable from any current branch.
+   */
+  private void removeOrphans(String branch, String head, Heads current) {
+    String currentDefaultHead = current.getRevisions().get(current.getDefaultBranch());
+    if (existing(head) == null || currentDefaultHead == null) {
+      LOG.debug("could not resolve previous head of branch {} in repository {}, keep its changesets", branch, repository);
+      return;
+    }
+    Set<String> orphans = new HashSet<>();
+    pager.forEachPageOfChangeset(head, currentDefaultHead, page -> page.forEach(changeset -> orphans.add(changeset.getId())));
+    // changesets which are still reachable from another branch are kept
+    for (String other : current.getRevisions().keySet()) {
+      if (orphans.isEmpty()) {
+        break;
+      }
+      if (!other.equals(current.getDefaultBranch())) {
+        pager.forEachPageOfBranch(other, currentDefaultHead, page -> page.forEach(changeset -> orphans.remove(changeset.getId())));
+      }
+    }
+    LOG.debug("remove {} changesets of branch {} from index of repository {}", orphans.size(), branch, repository);
+    indexer.delete(orphans);
+  }
+
+  private String existing(String revision) {
+    if (revision == null) {
+      return null;
+    }
+    try {
+      Changeset changeset = repositoryService.getLogCommand().getChangeset(revision);
+      return changeset != null ? revision : null;
+    } catch (IOException e) {
+      throw new InternalRepositoryException(repository, "failed to read changeset " + revision, e);
+    }
+  }
+
+  @Value
+  static class Heads {
+    Map<String, String> revisions;
+    String defaultBranch;
+
+    boolean isEmpty() {
+      return revisions.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.InternalRepositoryException;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the paths, which were changed by a changeset, from the modifications of the repository.
+ */
+class ChangedPaths {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ChangedPaths.class);
+
+  static final String SEPARATOR = "\n";
+
+  private final RepositoryService repositoryService;
+  private final int limit;
+
+  ChangedPaths(RepositoryService repositoryService, int limit) {
+    this.repositoryService = repositoryService;
+    this.limit = limit > 0 ? limit : Integer.MAX_VALUE;
+  }
+
+  static boolean isSupported(RepositoryService repositoryService) {
+    return repositoryService.isSupported(Command.MODIFICATIONS);
+  }
+
+  /**
+   * Reads the changed paths of the given revision. The modifications command reads only one revision at a time.
+   */
+  String read(String revision) {
+    Modifications modifications;
+    try {
+      modifications = repositoryService.getModificationsCommand().revision(revision).getModifications();
+    } catch (IOException e) {
+      throw new InternalRepositoryException(
+        repositoryService.getRepository(), "failed to read modifications of changeset " + revision, e
+      );
+    }
+    if (modifications == null) {
+      return "";
+    }
+    // one more path than the limit is read to detect the truncation
+    List<String> paths = modifications.getEffectedPaths()
+      .distinct()
+      .limit(limit + 1L)
+      .collect(Collectors.toList());
+    if (paths.size() > limit) {
+      LOG.trace("changeset {} changed more than {} paths, skip the remaining paths", revision, limit);
+      paths = paths.subList(0, limit);
+    }
+    return String.join(SEPARATOR, paths);
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Feature;
+import sonia.scm.repository.InternalRepositoryException;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.LogCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Walks the history of every branch of a repository in pages of a fixed size,
+ * so that only one page of changesets has to be kept in memory at a time.
+ */
+class ChangesetPager {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ChangesetPager.class);
+
+  private final RepositoryService repositoryService;
+  private final Repository repository;
+  private final int pageSize;
+  private final String ancestor;
+
+  ChangesetPager(RepositoryService repositoryService, int pageSize) {
+    this(repositoryService, pageSize, null);
+  }
+
+  /**
+   * Creates a pager, which walks only changesets that are not reachable from the given ancestor.
+   * If the log command of the repository does not support ancestors, the walk stops at the ancestor.
+   */
+  ChangesetPager(RepositoryService repositoryService, int pageSize, String ancestor) {
+    this.repositoryService = repositoryService;
+    this.repository = repositoryService.getRepository();
+    this.pageSize = pageSize;
+    this.ancestor = ancestor;
+  }
+
+  static boolean isSupported(RepositoryService repositoryService) {
+    return repositoryService.isSupported(Command.LOG);
+  }
+
+  /**
+   * Walks the history of every branch. The branches other than the default branch are walked only down to the head
+   * of the default branch, if the log command supports ancestors.
+   */
+  void forEachPage(Consumer<List<Changeset>> consumer) {
+    List<Branch> branches = branches();
+    String defaultHead = null;
+    String defaultBranch = null;
+    for (Branch branch : branches) {
+      if (branch != null && branch.isDefaultBranch()) {
+        defaultHead = branch.getRevision();
+        defaultBranch = branch.getName();
+      }
+    }
+    forEachPage(names(branches), null, defaultBranch, defaultHead, Position.START, (changesets, next) -> consumer.accept(changesets));
+  }
+
+  /**
+   * Walks the history starting with the page at the given position. The walk pages through the current heads
+   * of the branches as a previous version did, so that its interrupted walks can be resumed.
+   * If the branch does no longer exist, the walk starts from the beginning.
+   */
+  void forEachPage(Position start, PageConsumer consumer) {
+    forEachPage(names(branches()), null, null, null, start, consumer);
+  }
+
+  /**
+   * Walks the history of the given heads by branch, starting with the page at the given position.
+   * Because the walk starts at the given heads instead of the current heads of the branches, changesets which are
+   * pushed in the meantime do not shift the pages. A {@code null} branch stands for a repository without branches.
+   * If the default branch is known, it is walked first and the other branches are walked only down to its head,
+   * if the log command supports ancestors.
+   */
+  void forEachPage(Map<String, String> heads, String defaultBranch, Position start, PageConsumer consumer) {
+    Comparator<String> order = Comparator.nullsFirst(Comparator.<String>naturalOrder());
+    if (defaultBranch != null) {
+      order = Comparator.comparing((String branch) -> !defaultBranch.equals(branch)).thenComparing(order);
+    }
+    List<String> branches = heads.keySet()
+      .stream()
+      // stable order, so that an interrupted walk can be resumed
+      .sorted(order)
+      .collect(Collectors.toList());
+    String defaultHead = defaultBranch != null ? heads.get(defaultBranch) : null;
+    forEachPage(branches, heads, defaultBranch, defaultHead, start, consumer);
+  }
+
+  private void forEachPage(List<String> branches,
+                           Map<String, String> heads,
+                           String defaultBranch,
+                           String defaultHead,
+                           Position start,
+                           PageConsumer consumer) {
+    int branchIndex = start.getBranch() == null ? 0 : branches.indexOf(start.getBranch());
+    if (branchIndex < 0) {
+      LOG.debug("could not find branch {} of repository {}, start from the beginning", start.getBranch(), repository);
+      branchIndex = 0;
+      start = Position.START;
+    }
+    boolean excludeDefault = defaultHead != null && isAncestorSupported(repositoryService);
+    for (int i = branchIndex; i < branches.size(); i++) {
+      String branch = branches.get(i);
+      String head = heads != null ? heads.get(branch) : null;
+      String exclude = ancestor;
+      if (exclude == null && excludeDefault && !defaultBranch.equals(branch)) {
+        // the shared history was already read with the default branch
+        exclude = defaultHead;
+      }
+      Range range = new Range(branch, head, exclude);
+      if (i == branchIndex) {
+        walk(range, start.getStart(), start.getOffset(), consumer);
+      } else {
+        walk(range, null, 0, consumer);
+      }
+    }
+  }
+
+  /**
+   * Walks the changesets of the given branch, which are not reachable from the given ancestor.
+   * If the ancestor is {@code null}, the whole history of the branch is walked.
+   */
+  void forEachPageOfBranch(String branch, String ancestor, Consumer<List<Changeset>> consumer) {
+    walk(new Range(branch, null, ancestor), null, 0, (changesets, next) -> consumer.accept(changesets));
+  }
+
+  /**
+   * Walks the changesets reachable from the given changeset, which are not reachable from the given ancestor.
+   */
+  void forEachPageOfChangeset(String changeset, String ancestor, Consumer<List<Changeset>> consumer) {
+    walk(new Range(null, changeset, ancestor), null, 0, (changesets, next) -> consumer.accept(changesets));
+  }
+
+  /**
+   * Returns {@code true}, if the log command of the repository can exclude the changesets of an ancestor.
+   * Other log commands ignore the ancestor and return the whole history.
+   */
+  static boolean isAncestorSupported(RepositoryService repositoryService) {
+    return repositoryService.isSupported(Feature.INCOMING_REVISION);
+  }
+
+  /**
+   * Walks the range in pages. Paging by offset would make the log command skip all previous changesets for every
+   * page, so the walk continues from the last read changesets instead, whenever the rest of the range is reachable
+   * from a single changeset: once the changesets read so far leave exactly one parent unread, the walk starts over
+   * from that parent.
+   *
+   * @param anchor changeset from which the walk continues, {@code null} for the start of the range
+   * @param offset offset of the next page within the walk of the anchor
+   */
+  private void walk(Range range, String anchor, int offset, PageConsumer consumer) {
+    // without support for ancestors the walk stops at the ancestor, which is exact for a linear history
+    boolean stopAtAncestor = range.ancestor != null && !isAncestorSupported(repositoryService);
+    // the unread parents are only known, if the walk of the anchor was read from its beginning
+    Frontier frontier = offset == 0 ? new Frontier() : null;
+    while (true) {
+      ChangesetPagingResult result = page(range, anchor, offset, !stopAtAncestor);
+      List<Changeset> changesets = result.getChangesets();
+      if (changesets == null || changesets.isEmpty()) {
+        return;
+      }
+      LOG.trace(
+        "read page of {} changesets starting at {} of {} from {} in repository {}",
+        changesets.size(), offset, range, anchor, repository
+      );
+      int read = changesets.size();
+      offset += read;
+      int ancestorIndex = stopAtAncestor ? indexOf(changesets, range.ancestor) : -1;
+      if (ancestorIndex >= 0) {
+        LOG.trace("reached ancestor {} in repository {}", range.ancestor, repository);
+        if (ancestorIndex > 0) {
+          consumer.accept(changesets.subList(0, ancestorIndex), new Position(range.branch, anchor, offset));
+        }
+        return;
+      }
+      boolean last = read < pageSize || offset >= result.getTotal();
+      String parent = !last && frontier != null ? frontier.advance(changesets) : null;
+      if (parent != null) {
+        anchor = parent;
+        offset = 0;
+        frontier = new Frontier();
+      }
+      consumer.accept(changesets, new Position(range.branch, anchor, offset));
+      if (last) {
+        return;
+      }
+    }
+  }
+
+  private static int indexOf(List<Changeset> changesets, String id) {
+    for (int i = 0; i < changesets.size(); i++) {
+      if (id.equals(changesets.get(i).getId())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the branches in a stable order with the default branch first, so that an interrupted walk can be resumed.
+   * A {@code null} branch lets the log command pick the default branch of a repository without branches.
+   */
+  private List<Branch> branches() {
+    if (repositoryService.isSupported(Command.BRANCHES)) {
+      try {
+        return repositoryService.getBranchesCommand()
+          .getBranches()
+          .getBranches()
+          .stream()
+          .sorted(Comparator.comparing(Branch::isDefaultBranch).reversed().thenComparing(Branch::getName))
+          .collect(Collectors.toList());
+      } catch (IOException e) {
+        throw new InternalRepositoryException(repository, "failed to read branches", e);
+      }
+    }
+    return Collections.singletonList(null);
+  }
+
+  private static List<String> names(List<Branch> branches) {
+    return branches.stream()
+      .map(branch -> branch != null ? branch.getName() : null)
+      .collect(Collectors.toList());
+  }
+
+  private ChangesetPagingResult page(Range range, String anchor, int start, boolean withAncestor) {
+    LogCommandBuilder logCommand = repositoryService.getLogCommand()
+      .setDisableCache(true)
+      .setPagingStart(start)
+      .setPagingLimit(pageSize);
+    if (anchor != null) {
+      logCommand.setStartChangeset(anchor);
+    } else if (range.startChangeset != null) {
+      // a pinned head takes precedence over the current head of the branch
+      logCommand.setStartChangeset(range.startChangeset);
+    } else if (range.branch != null) {
+      logCommand.setBranch(range.branch);
+    }
+    if (withAncestor && range.ancestor != null) {
+      logCommand.setAncestorChangeset(range.ancestor);
+    }
+    try {
+      return logCommand.getChangesets();
+    } catch (IOException e) {
+      throw new InternalRepositoryException(repository, "failed to read changesets of " + range, e);
+    }
+  }
+
+  private static final class Range {
+
+    private final String branch;
+    private final String startChangeset;
+    private final String ancestor;
+
+    private Range(String branch, String startChangeset, String ancestor) {
+      this.branch = branch;
+      this.startChangeset = startChangeset;
+      this.ancestor = ancestor;
+    }
+
+    @Override
+    public String toString() {
+      return "branch " + branch + " (start " + startChangeset + ", ancestor " + ancestor + ")";
+    }
+  }
+
+  /**
+   * Parents of the changesets read so far, which have not been read themselves. The rest of the walk is reachable
+   * from these parents. Only parents are tracked, so the memory is bounded by the width of the history.
+   * A parent which was read before its child is kept by mistake, which only delays the next start over.
+   */
+  private static final class Frontier {
+
+    private final Set<String> unread = new HashSet<>();
+
+    /**
+     * Adds the page and returns the only unread parent, or {@code null} if there is more than one.
+     */
+    private String advance(List<Changeset> changesets) {
+      Set<String> ids = new HashSet<>();
+      for (Changeset changeset : changesets) {
+        ids.add(changeset.getId());
+        unread.remove(changeset.getId());
+      }
+      for (Changeset changeset : changesets) {
+        for (String parent : changeset.getParents()) {
+          if (!ids.contains(parent)) {
+            unread.add(parent);
+          }
+        }
+      }
+      return unread.size() == 1 ? unread.iterator().next() : null;
+    }
+  }
+
+  /**
+   * Position of the next page of a walk.
+   */
+  @Value
+  static class Position {
+
+    static final Position START = new Position(null, null, 0);
+
+    /**
+     * Branch of the next page, {@code null} for the first branch or a repository without branches.
+     */
+    String branch;
+    /**
+     * Changeset from which the walk of the branch continues, {@code null} for the head of the branch.
+     */
+    String start;
+    /**
+     * Offset of the next page within the walk of the start changeset.
+     */
+    int offset;
+  }
+
+  @FunctionalInterface
+  interface PageConsumer {
+    void accept(List<Changeset> changesets, Position next);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.InternalRepositoryException;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the changesets of the repository with the index, stores the missing ones and deletes the stale ones.
+ */
+class ConsistencyChecker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConsistencyChecker.class);
+
+  private final RepositoryService repositoryService;
+  private final Repository repository;
+  private final Indexer indexer;
+  private final ConsistencySweep sweep;
+  private final IndexConfiguration configuration;
+
+  private long repaired;
+
+  ConsistencyChecker(RepositoryService repositoryService, Indexer indexer, ConsistencySweep sweep, IndexConfiguration configuration) {
+    this.repositoryService = repositoryService;
+    this.repository = repositoryService.getRepository();
+    this.indexer = indexer;
+    this.sweep = sweep;
+    this.configuration = configuration;
+  }
+
+  /**
+   * Verifies the index. Only the verification of the whole history detects changesets in the index,
+   * which are no longer part of the repository.
+   */
+  void verify() {
+    int sampleSize = configuration.getSweepSampleSize();
+    if (sampleSize > 0) {
+      LOG.debug("verify latest {} changesets of repository {}", sampleSize, repository);
+      check(latest(sampleSize));
+      log();
+      return;
+    }
+
+    LOG.debug("verify all changesets of repository {}", repository);
+    VisitedChangesets visited = new VisitedChangesets();
+    int pageSize = configuration.getPageSize() > 0 ? configuration.getPageSize() : Integer.MAX_VALUE;
+    new ChangesetPager(repositoryService, pageSize).forEachPage(page -> check(visited.filter(page)));
+    log();
+    // the search finds only committed documents, so the repaired ones are not counted yet
+    long indexed = sweep.count(repository);
+    long expected = visited.size() - repaired;
+    if (indexed > expected) {
+      LOG.info("index of repository {} contains {} changesets, but only {} exist", repository, indexed, expected);
+      removeStale(visited);
+    }
+  }
+
+  /**
+   * Deletes the changesets of the index, which were not visited in the history of the repository.
+   */
+  private void removeStale(VisitedChangesets visited) {
+    sweep.forEachIndexedPage(repository, ids -> {
+      List<String> stale = ids.stream()
+        .filter(id -> !visited.contains(id))
+        .collect(Collectors.toList());
+      LOG.debug("delete {} stale changesets from index of repository {}", stale.size(), repository);
+      indexer.delete(stale);
+    });
+  }
+
+  private void check(List<Changeset> changesets) {
+    if (changesets.isEmpty()) {
+      return;
+    }
+    sweep.throttle(changesets.size());
+    Set<String> indexed = sweep.indexed(
+      repository, changesets.stream().map(Changeset::getId).collect(Collectors.toList())
+    );
+    List<Changeset> missing = changesets.stream()
+      .filter(changeset -> !indexed.contains(changeset.getId()))
+      .collect(Collectors.toList());
+    if (!missing.isEmpty()) {
+      repaired += indexer.store(missing);
+    }
+  }
+
+  private List<Changeset> latest(int limit) {
+    try {
+      ChangesetPagingResult result = repositoryService.getLogCommand()
+        .setDisableCache(true)
+        .setPagingStart(0)
+        .setPagingLimit(limit)
+        .getChangesets();
+      return result.getChangesets() != null ? result.getChangesets() : Collections.emptyList();
+    } catch (IOException e) {
+      throw new InternalRepositoryException(repository, "failed to read latest changesets", e);
+    }
+  }
+
+  private void log() {
+    if (repaired > 0) {
+      LOG.info("stored {} missing changesets of repository {}", repaired, repository);
+    } else {
+      LOG.debug("index of repository {} is consistent", repository);
+    }
+  }
+}
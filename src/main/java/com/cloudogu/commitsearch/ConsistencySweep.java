@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.schedule.Scheduler;
+import sonia.scm.search.Hit;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+import sonia.scm.web.security.AdministrationContext;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Verifies the index of every repository on a schedule (by default at night) and repairs missing changesets.
+ * Only one repository is verified at a time and the number of changesets read per second is limited,
+ * so that the sweep does not compete with regular index updates.
+ * Every minute the sweep also retries the repositories, whose quarantine after failed index tasks has expired,
+ * so that they do not have to wait for the next push or restart.
+ */
+@Singleton
+@SuppressWarnings("UnstableApiUsage")
+public class ConsistencySweep {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConsistencySweep.class);
+
+  /**
+   * Maximum number of ids which are looked up in the index with a single query.
+   */
+  @VisibleForTesting
+  static final int LOOKUP_SIZE = 100;
+
+  /**
+   * If a verification does not report back within this time, the next repository is verified anyway.
+   */
+  private static final long PERMIT_TIMEOUT_MINUTES = 60;
+
+  /**
+   * Interval in which a sweep waiting for the previous verification checks, whether it should stop.
+   */
+  private static final long STOP_CHECK_SECONDS = 1;
+
+  @VisibleForTesting
+  static final String RETRY_CRON = "0 * * * * ?";
+
+  private final AdministrationContext administrationContext;
+  private final RepositoryManager repositoryManager;
+  private final SearchEngine searchEngine;
+  private final IndexStatusStore indexStatusStore;
+  private final IndexTaskDispatcher dispatcher;
+  private final IndexConfiguration configuration;
+  private final Scheduler scheduler;
+  private final RateLimiter rateLimiter;
+  private final Semaphore permit = new Semaphore(1);
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+  // next retry of the quarantine, for which a retry was submitted, by repository
+  private final Map<String, Instant> retried = new ConcurrentHashMap<>();
+
+  private volatile boolean stopped;
+
+  @Inject
+  public ConsistencySweep(AdministrationContext administrationContext,
+                          RepositoryManager repositoryManager,
+                          SearchEngine searchEngine,
+                          IndexStatusStore indexStatusStore,
+                          IndexTaskDispatcher dispatcher,
+                          IndexConfiguration configuration,
+                          Scheduler scheduler) {
+    this.administrationContext = administrationContext;
+    this.repositoryManager = repositoryManager;
+    this.searchEngine = searchEngine;
+    this.indexStatusStore = indexStatusStore;
+    this.dispatcher = dispatcher;
+    this.configuration = configuration;
+    this.scheduler = scheduler;
+    int rate = configuration.getSweepRate();
+    this.rateLimiter = rate > 0 ? RateLimiter.create(rate) : null;
+    // a verification dropped on shutdown never reports back
+    dispatcher.onDropped(task -> {
+      if (task.isVerify()) {
+        finished(task.getRepository());
+      }
+    });
+  }
+
+  void start() {
+    scheduler.schedule(RETRY_CRON, () -> administrationContext.runAsAdmin(this::retryQuarantined));
+    String cron = configuration.getSweepCron();
+    if (cron == null || cron.trim().isEmpty()) {
+      LOG.debug("consistency sweep is disabled");
+      return;
+    }
+    LOG.debug("schedule consistency sweep with {}", cron);
+    scheduler.schedule(cron, () -> administrationContext.runAsAdmin(this::sweep));
+  }
+
+  /**
+   * Stops a running sweep before the next repository. The schedule itself ends with the scheduler of SCM-Manager.
+   */
+  void stop() {
+    stopped = true;
+  }
+
+  @VisibleForTesting
+  void sweep() {
+    List<Repository> repositories = repositoryManager.getAll()
+      .stream()
+      .filter(this::isVerifiable)
+      .collect(Collectors.toList());
+    LOG.info("start consistency sweep of {} repositories", repositories.size());
+    for (Repository repository : repositories) {
+      if (stopped || !acquire()) {
+        LOG.debug("consistency sweep was interrupted");
+        return;
+      }
+      inFlight.add(repository.getId());
+      dispatcher.submit(repository, IndexerTask.verify(repository));
+    }
+  }
+
+  /**
+   * Submits an index task for every repository, whose quarantine has expired. The task catches up with the
+   * changesets of the tasks, which were skipped during the quarantine. A retry is submitted only once per
+   * quarantine, if it fails, the repository is quarantined again with a later retry.
+   */
+  @VisibleForTesting
+  void retryQuarantined() {
+    if (stopped || dispatcher.isStopping()) {
+      return;
+    }
+    Instant now = Instant.now();
+    for (Repository repository : repositoryManager.getAll()) {
+      Optional<Instant> nextRetry = indexStatusStore.get(repository)
+        .filter(status -> status.getFailures() > 0 && !status.isQuarantined(now))
+        .map(IndexStatus::getNextRetry);
+      if (nextRetry.isEmpty()) {
+        retried.remove(repository.getId());
+      } else if (!nextRetry.get().equals(retried.put(repository.getId(), nextRetry.get()))) {
+        LOG.debug("quarantine of repository {} has expired, retry index update", repository);
+        dispatcher.submit(repository, new IndexerTask(repository, null));
+      }
+    }
+  }
+
+  /**
+   * Repositories without a complete index are skipped, they are indexed by the regular index tasks anyway.
+   */
+  private boolean isVerifiable(Repository repository) {
+    return indexStatusStore.get(repository)
+      .filter(status -> status.getVersion() == IndexedChangeset.VERSION)
+      .filter(status -> !status.isEmpty() && !status.isReindexing() && status.getPendingUpdates() == 0)
+      .isPresent();
+  }
+
+  /**
+   * Waits for the verification of the previous repository. Returns {@code false}, if the sweep should stop.
+   */
+  private boolean acquire() {
+    long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(PERMIT_TIMEOUT_MINUTES);
+    try {
+      while (!permit.tryAcquire(STOP_CHECK_SECONDS, TimeUnit.SECONDS)) {
+        if (stopped || dispatcher.isStopping()) {
+          return false;
+        }
+        if (System.nanoTime() - deadline >= 0) {
+          LOG.warn("verification of previous repository did not finish within {} minutes, continue anyway", PERMIT_TIMEOUT_MINUTES);
+          return true;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Called by a verify task, once it has finished.
+   */
+  void finished(Repository repository) {
+    if (inFlight.remove(repository.getId())) {
+      permit.release();
+    }
+  }
+
+  /**
+   * Blocks until the given number of changesets may be read according to the configured rate.
+   */
+  void throttle(int changesets) {
+    if (rateLimiter != null && changesets > 0) {
+      rateLimiter.acquire(changesets);
+    }
+  }
+
+  /**
+   * Returns the ids of the given ones, which are stored in the index of the repository.
+   */
+  Set<String> indexed(Repository repository, Collection<String> ids) {
+    Set<String> indexed = new HashSet<>();
+    for (List<String> chunk : Iterables.partition(ids, LOOKUP_SIZE)) {
+      String query = chunk.stream()
+        .map(id -> "id:\"" + id + "\"")
+        .collect(Collectors.joining(" OR "));
+      QueryResult result = searchEngine.forType(IndexedChangeset.class)
+        .search()
+        .filter(Repository.class, repository.getId())
+        .limit(chunk.size())
+        .execute(query);
+      for (Hit hit : result.getHits()) {
+        Hit.Field field = hit.getFields().get("id");
+        if (field instanceof Hit.ValueField) {
+          indexed.add(String.valueOf(((Hit.ValueField) field).getValue()));
+        }
+      }
+    }
+    return indexed;
+  }
+
+  /**
+   * Passes the ids of the changesets in the index of the repository to the consumer, one page at a time.
+   */
+  void forEachIndexedPage(Repository repository, Consumer<List<String>> consumer) {
+    new IndexedIds(searchEngine, repository).forEachPage("*:*", consumer);
+  }
+
+  /**
+   * Returns the number of changesets in the index of the repository.
+   */
+  long count(Repository repository) {
+    return searchEngine.forType(IndexedChangeset.class)
+      .search()
+      .filter(Repository.class, repository.getId())
+      .count("*:*")
+      .getTotalHits();
+  }
+}
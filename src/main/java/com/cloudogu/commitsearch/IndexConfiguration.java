@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import jakarta.inject.Singleton;
+
+/**
+ * Tuning options of the commit indexing. Each option can be overridden with a system property, e.g.
+ * {@code -Dscm.commitSearch.pageSize=500}.
+ */
+@Getter
+@Setter(AccessLevel.PACKAGE)
+@Singleton
+public class IndexConfiguration {
+
+  static final String PREFIX = "scm.commitSearch.";
+
+  /**
+   * Number of changesets which are read and indexed at once during a full reindex.
+   * A value of zero or less disables paging and the whole history is passed to the index in one go.
+   */
+  private int pageSize = Integer.getInteger(PREFIX + "pageSize", 1000);
+
+  /**
+   * Number of pages which are written by one index task of a reindex, before the reindex continues with a new task.
+   * The index commits the documents of a task when the task ends, so the checkpoint of a reindex advances only from
+   * task to task and a crash reads at most this number of pages again. A value of zero or less writes the whole
+   * history with one task, which starts over from the beginning after a crash.
+   */
+  private int pagesPerTask = Integer.getInteger(PREFIX + "pagesPerTask", 10);
+
+  /**
+   * Number of pages which may be read ahead of the index writes during a paged walk over the history.
+   * A value of zero or less reads and writes the pages one after another on the same thread.
+   */
+  private int readAhead = Integer.getInteger(PREFIX + "readAhead", 2);
+
+  /**
+   * If more changesets than this are removed at once (e.g. by a force push), the repository is reindexed
+   * instead of deleting every changeset on its own. A value of zero or less disables the reindex. The reindex
+   * clears the index first, unless {@link #shadowReindex} is enabled.
+   */
+  private int deleteReindexThreshold = Integer.getInteger(PREFIX + "deleteReindexThreshold", 5000);
+
+  /**
+   * Pushes with up to this number of changesets pass the mapped documents to the index task. The changesets
+   * of larger pushes are passed by id and read from the repository, when the task is executed.
+   */
+  private int inlineLimit = Integer.getInteger(PREFIX + "inlineLimit", 100);
+
+  /**
+   * Milliseconds for which the changesets of pushes to the same repository are collected into one index update.
+   * A value of zero or less submits every push on its own.
+   */
+  private long pushCoalesceWindow = Long.getLong(PREFIX + "pushCoalesceWindow", 2000);
+
+  /**
+   * Seconds to wait after startup, before the index of the repositories is checked.
+   */
+  private int startupDelay = Integer.getInteger(PREFIX + "startupDelay", 0);
+
+  /**
+   * Maximum number of startup index tasks, which are submitted but not yet finished.
+   */
+  private int startupConcurrency = Integer.getInteger(PREFIX + "startupConcurrency", 4);
+
+  /**
+   * Maximum number of index tasks of large repositories, which are submitted to the search engine but not yet finished.
+   * Further tasks are held back, so that large repositories can not occupy all workers of the search engine.
+   */
+  private int largeTasks = Integer.getInteger(PREFIX + "largeTasks", 1);
+
+  /**
+   * Maximum number of bulk tasks of small repositories, like startup checks, verifications and reindexes,
+   * which are submitted to the search engine but not yet finished. Further bulk tasks are held back, so that
+   * updates for pushes are not queued behind them. Updates for pushes of small repositories are always
+   * submitted right away.
+   */
+  private int smallBulkTasks = Integer.getInteger(PREFIX + "smallBulkTasks", 2);
+
+  /**
+   * Repositories with at least this number of indexed changesets are treated as large repositories.
+   * A value of zero or less treats every repository as small.
+   */
+  private long largeRepositoryThreshold = Long.getLong(PREFIX + "largeRepositoryThreshold", 100_000);
+
+  /**
+   * Cron expression of the consistency sweep, which verifies the index of all repositories.
+   * An empty value disables the sweep.
+   */
+  private String sweepCron = System.getProperty(PREFIX + "sweepCron", "0 0 2 * * ?");
+
+  /**
+   * Maximum number of changesets per second, which are read by the consistency sweep.
+   * A value of zero or less disables the limit.
+   */
+  private int sweepRate = Integer.getInteger(PREFIX + "sweepRate", 500);
+
+  /**
+   * Maximum number of changesets per second, which are rewritten by rolling index upgrades after a version change.
+   * A value of zero or less disables the limit.
+   */
+  private int upgradeRate = Integer.getInteger(PREFIX + "upgradeRate", 1000);
+
+  /**
+   * Number of latest changesets, which are verified per repository by the consistency sweep.
+   * A value of zero or less verifies the whole history and deletes stale changesets, too,
+   * which reads every changeset of every repository on each sweep.
+   */
+  private int sweepSampleSize = Integer.getInteger(PREFIX + "sweepSampleSize", 1000);
+
+  /**
+   * Seconds between the writes of modified index status entries to the store.
+   * A value of zero or less writes every modification immediately.
+   */
+  private int statusFlushInterval = Integer.getInteger(PREFIX + "statusFlushInterval", 5);
+
+  /**
+   * Seconds to wait on shutdown for running index tasks to stop at their next document. Interrupted reindexes
+   * resume from their last checkpoint on the next start. A value of zero or less does not wait at all.
+   */
+  private int shutdownTimeout = Integer.getInteger(PREFIX + "shutdownTimeout", 30);
+
+  /**
+   * Seconds for which the index tasks of a repository are skipped after a failure. The delay doubles with every
+   * further failure in a row. A value of zero or less retries failed repositories with the next task.
+   */
+  private long quarantineBackoff = Long.getLong(PREFIX + "quarantineBackoff", 60);
+
+  /**
+   * Upper limit in seconds for the delay of the retries of failed repositories.
+   */
+  private long quarantineMaxBackoff = Long.getLong(PREFIX + "quarantineMaxBackoff", 86_400);
+
+  /**
+   * Skip the startup index check of repositories, which have not been changed since their last index update.
+   */
+  private boolean skipUnchanged = Boolean.parseBoolean(System.getProperty(PREFIX + "skipUnchanged", "true"));
+
+  /**
+   * Read the changesets of a push from the hook event before the index task is queued. By default only the
+   * repository of the push is recorded and the index task reads the new changesets from the repository,
+   * so that large pushes are not delayed by walking their changesets.
+   */
+  private boolean hookChangesets = Boolean.parseBoolean(System.getProperty(PREFIX + "hookChangesets", "false"));
+
+  /**
+   * Rebuild the index of a repository next to the existing documents instead of clearing it first.
+   * The documents of the previous build remain searchable and are removed once the rebuild is finished.
+   */
+  private boolean shadowReindex = Boolean.parseBoolean(System.getProperty(PREFIX + "shadowReindex", "false"));
+
+  /**
+   * Maximum number of changed paths, which are indexed per changeset, so that huge merges do not blow up
+   * the documents. A value of zero or less indexes all paths.
+   */
+  private int changedPathsLimit = Integer.getInteger(PREFIX + "changedPathsLimit", 200);
+
+}
@@ -25,7 +25,8 @@ import sonia.scm.repository.PostReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.api.HookChangesetBuilder;
-import sonia.scm.search.SearchEngine;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
 import sonia.scm.web.security.AdministrationContext;
 
 import jakarta.inject.Inject;
@@ -33,6 +34,8 @@ import jakarta.inject.Singleton;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -45,33 +48,72 @@ public class IndexListener implements ServletContextListener {
 
   private final AdministrationContext administrationContext;
   private final RepositoryManager repositoryManager;
-  private final SearchEngine searchEngine;
+  private final StartupIndexScheduler startupIndexScheduler;
+  private final PushCoalescer pushCoalescer;
+  private final IndexTaskDispatcher dispatcher;
+  private final ConsistencySweep consistencySweep;
+  private final IndexStatusStore indexStatusStore;
+  private final IndexConfiguration configuration;
+  private final RepositoryServiceFactory repositoryServiceFactory;
+  // the support for ancestors depends only on the type of the repository
+  private final Map<String, Boolean> ancestorSupport = new ConcurrentHashMap<>();
 
   @Inject
-  public IndexListener(AdministrationContext administrationContext, RepositoryManager repositoryManager, SearchEngine searchEngine) {
+  public IndexListener(AdministrationContext administrationContext,
+                       RepositoryManager repositoryManager,
+                       StartupIndexScheduler startupIndexScheduler,
+                       PushCoalescer pushCoalescer,
+                       IndexTaskDispatcher dispatcher,
+                       ConsistencySweep consistencySweep,
+                       IndexStatusStore indexStatusStore,
+                       IndexConfiguration configuration,
+                       RepositoryServiceFactory repositoryServiceFactory) {
     this.administrationContext = administrationContext;
     this.repositoryManager = repositoryManager;
-    this.searchEngine = searchEngine;
+    this.startupIndexScheduler = startupIndexScheduler;
+    this.pushCoalescer = pushCoalescer;
+    this.dispatcher = dispatcher;
+    this.consistencySweep = consistencySweep;
+    this.indexStatusStore = indexStatusStore;
+    this.configuration = configuration;
+    this.repositoryServiceFactory = repositoryServiceFactory;
   }
 
   @Override
   public void contextInitialized(ServletContextEvent servletContextEvent) {
-    administrationContext.runAsAdmin(() -> {
-      for (Repository repository : repositoryManager.getAll()) {
-        LOG.debug("startup check if index of repository {}, requires update", repository);
-        submit(repository, null);
-      }
-    });
+    administrationContext.runAsAdmin(() -> startupIndexScheduler.schedule(repositoryManager.getAll()));
+    consistencySweep.start();
   }
 
   @Subscribe
   public void handle(PostReceiveRepositoryHookEvent event) {
     LOG.debug("received hook event for repository {}, update index if necessary", event.getRepository());
-    submit(event.getRepository(), extractChangesets(event.getContext().getChangesetProvider()));
+    if (configuration.isHookChangesets() || !isAncestorSupported(event.getRepository())) {
+      pushCoalescer.submit(event.getRepository(), extractChangesets(event.getContext().getChangesetProvider()));
+    } else {
+      // the index task compares the heads of the branches with the indexed ones and reads the new changesets
+      pushCoalescer.submit(event.getRepository(), null);
+    }
+  }
+
+  /**
+   * The index task can read the new changesets of a push only efficiently, if the log command of the repository
+   * can exclude the changesets of the indexed revision. Otherwise the changesets are taken from the hook event.
+   */
+  private boolean isAncestorSupported(Repository repository) {
+    return ancestorSupport.computeIfAbsent(repository.getType(), type -> {
+      try (RepositoryService repositoryService = repositoryServiceFactory.create(repository)) {
+        return ChangesetPager.isAncestorSupported(repositoryService);
+      }
+    });
   }
 
   private UpdatedChangesets extractChangesets(HookChangesetBuilder changesetProvider) {
-    return new UpdatedChangesets(toList(changesetProvider.getChangesets()), toList(changesetProvider.getRemovedChangesets()));
+    return UpdatedChangesets.of(
+      toList(changesetProvider.getChangesets()),
+      toList(changesetProvider.getRemovedChangesets()),
+      configuration.getInlineLimit()
+    );
   }
 
   private List<Changeset> toList(Iterable<Changeset> changesets) {
@@ -79,14 +121,13 @@ public class IndexListener implements ServletContextListener {
       .collect(Collectors.toList());
   }
 
-  private void submit(Repository repository, UpdatedChangesets changesets) {
-    searchEngine.forType(IndexedChangeset.class)
-      .forResource(repository)
-      .update(new IndexerTask(repository, changesets));
-  }
-
   @Override
   public void contextDestroyed(ServletContextEvent servletContextEvent) {
-    // nothing to destroy here
+    startupIndexScheduler.shutdown();
+    pushCoalescer.shutdown();
+    consistencySweep.stop();
+    // waits for the running tasks, so that their status is written before the store is closed
+    dispatcher.shutdown();
+    indexStatusStore.close();
   }
 }
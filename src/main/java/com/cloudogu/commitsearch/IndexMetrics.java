@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of the commit indexing, published through the {@link MeterRegistry} of SCM-Manager.
+ */
+@Singleton
+public class IndexMetrics {
+
+  private static final String PREFIX = "scm.commitsearch.";
+
+  private final Timer reindexTimer;
+  private final Timer updateTimer;
+  private final Timer taskLatency;
+  private final Counter indexedCommits;
+  private final Counter deletedCommits;
+  private final Counter versionReindexes;
+  private final Counter failedTasks;
+  private final Counter quarantineSkips;
+  private final AtomicInteger startupPending = new AtomicInteger();
+  private final AtomicInteger queuedPages = new AtomicInteger();
+
+  @Inject
+  public IndexMetrics(MeterRegistry registry) {
+    this.reindexTimer = Timer.builder(PREFIX + "reindex")
+      .description("Duration of full reindexes of a repository")
+      .register(registry);
+    this.updateTimer = Timer.builder(PREFIX + "update")
+      .description("Duration of incremental index updates of a repository")
+      .register(registry);
+    this.taskLatency = Timer.builder(PREFIX + "task.latency")
+      .description("Time between the submission of an index task and its start")
+      .register(registry);
+    this.indexedCommits = Counter.builder(PREFIX + "commits.indexed")
+      .description("Number of commits written to the index")
+      .register(registry);
+    this.deletedCommits = Counter.builder(PREFIX + "commits.deleted")
+      .description("Number of commits deleted from the index")
+      .register(registry);
+    this.versionReindexes = Counter.builder(PREFIX + "reindex.version")
+      .description("Number of reindexes triggered by a new index version")
+      .register(registry);
+    this.failedTasks = Counter.builder(PREFIX + "task.failed")
+      .description("Number of index tasks which failed")
+      .register(registry);
+    this.quarantineSkips = Counter.builder(PREFIX + "task.quarantined")
+      .description("Number of index tasks skipped, because their repository is quarantined after failures")
+      .register(registry);
+    Gauge.builder(PREFIX + "startup.pending", startupPending, AtomicInteger::get)
+      .description("Number of repositories waiting for their startup index check")
+      .register(registry);
+    Gauge.builder(PREFIX + "pipeline.queue", queuedPages, AtomicInteger::get)
+      .description("Number of pages read from the repositories, which are waiting to be written to the index")
+      .register(registry);
+  }
+
+  void reindex(Runnable runnable) {
+    reindexTimer.record(runnable);
+  }
+
+  void update(Runnable runnable) {
+    updateTimer.record(runnable);
+  }
+
+  void taskStarted(long submittedAt) {
+    taskLatency.record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - submittedAt)));
+  }
+
+  void indexed(int count) {
+    indexedCommits.increment(count);
+  }
+
+  void deleted(int count) {
+    deletedCommits.increment(count);
+  }
+
+  void versionMismatch() {
+    versionReindexes.increment();
+  }
+
+  void taskFailed() {
+    failedTasks.increment();
+  }
+
+  void quarantineSkipped() {
+    quarantineSkips.increment();
+  }
+
+  void startupPending(int count) {
+    startupPending.set(count);
+  }
+
+  void startupSubmitted() {
+    startupPending.decrementAndGet();
+  }
+
+  void pageQueued() {
+    queuedPages.incrementAndGet();
+  }
+
+  void pageDequeued() {
+    queuedPages.decrementAndGet();
+  }
+}
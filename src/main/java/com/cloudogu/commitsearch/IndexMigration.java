@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Decides how an index, which was built with a previous {@link IndexedChangeset#VERSION}, is brought to the
+ * current version. Every version bump declares the fields of {@link IndexedChangeset} it changed:
+ * <ul>
+ *   <li>no changed fields, e.g. for a new analyzer setting, only the version of the status is updated</li>
+ *   <li>changed fields are applied by a rolling upgrade, which overwrites the documents in place,
+ *   so that the old documents stay searchable until they are replaced</li>
+ *   <li>undeclared bumps and downgrades require a complete reindex</li>
+ * </ul>
+ */
+@Singleton
+@SuppressWarnings("UnstableApiUsage")
+public class IndexMigration {
+
+  /**
+   * Changed fields by the version, which introduced the change.
+   * Add an entry with every bump of {@link IndexedChangeset#VERSION}, e.g. {@code 3, Set.of("parent")}.
+   */
+  private static final Map<Integer, Set<String>> CHANGED_FIELDS = ImmutableMap.of();
+
+  enum Plan {
+    /**
+     * The index is built with the current version.
+     */
+    NONE,
+    /**
+     * The documents are compatible, only the version has to be updated.
+     */
+    BUMP,
+    /**
+     * The documents have to be rewritten in place.
+     */
+    UPGRADE,
+    /**
+     * The index has to be deleted and rebuilt.
+     */
+    REINDEX
+  }
+
+  private final int version;
+  private final Map<Integer, Set<String>> changedFields;
+  private final RateLimiter rateLimiter;
+
+  @Inject
+  public IndexMigration(IndexConfiguration configuration) {
+    this(configuration, IndexedChangeset.VERSION, CHANGED_FIELDS);
+  }
+
+  @VisibleForTesting
+  IndexMigration(IndexConfiguration configuration, int version, Map<Integer, Set<String>> changedFields) {
+    this.version = version;
+    this.changedFields = changedFields;
+    int rate = configuration.getUpgradeRate();
+    this.rateLimiter = rate > 0 ? RateLimiter.create(rate) : null;
+  }
+
+  Plan plan(int indexVersion) {
+    if (indexVersion == version) {
+      return Plan.NONE;
+    }
+    Set<String> fields = changedFields(indexVersion);
+    if (fields == null) {
+      return Plan.REINDEX;
+    }
+    return fields.isEmpty() ? Plan.BUMP : Plan.UPGRADE;
+  }
+
+  /**
+   * Returns the fields, which were changed since the given version,
+   * or {@code null} if at least one version bump in between is not declared.
+   */
+  Set<String> changedFields(int indexVersion) {
+    if (indexVersion > version) {
+      return null;
+    }
+    Set<String> fields = new TreeSet<>();
+    for (int v = indexVersion + 1; v <= version; v++) {
+      Set<String> changed = changedFields.get(v);
+      if (changed == null) {
+        return null;
+      }
+      fields.addAll(changed);
+    }
+    return Collections.unmodifiableSet(fields);
+  }
+
+  /**
+   * Blocks until the given number of changesets may be rewritten. The limit is shared by all running upgrades.
+   */
+  void throttle(int changesets) {
+    if (rateLimiter != null && changesets > 0) {
+      rateLimiter.acquire(changesets);
+    }
+  }
+}
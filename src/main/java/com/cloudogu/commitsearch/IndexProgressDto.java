@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import sonia.scm.repository.Repository;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Index progress of a repository as reported by the {@link IndexResource}.
+ */
+@Getter
+@AllArgsConstructor
+public class IndexProgressDto {
+
+  private String namespace;
+  private String name;
+  /**
+   * {@code true} while a reindex of the repository is running or was interrupted.
+   */
+  private boolean reindexing;
+  /**
+   * Number of requested index updates, which are not yet processed.
+   */
+  private int pendingUpdates;
+  /**
+   * Number of changesets stored by the running reindex or by the last reindex.
+   */
+  private long done;
+  /**
+   * Number of changesets stored by the previous reindex, which is used as estimate of the total.
+   * {@code null} if the repository was never indexed completely.
+   */
+  private Long total;
+  /**
+   * Changesets stored per second by the running reindex.
+   */
+  private Double rate;
+  /**
+   * Estimated end of the running reindex, {@code null} if it can not be estimated.
+   */
+  private Instant eta;
+  private Instant lastUpdate;
+
+  static IndexProgressDto of(Repository repository, IndexStatus status, Instant now) {
+    Long total = status.getCommitCount() > 0 ? status.getCommitCount() : null;
+    ReindexCheckpoint checkpoint = status.getCheckpoint();
+    if (checkpoint == null) {
+      return new IndexProgressDto(
+        repository.getNamespace(), repository.getName(), false, status.getPendingUpdates(),
+        status.getCommitCount(), total, null, null, status.getLastUpdate()
+      );
+    }
+    long done = checkpoint.getStored();
+    Double rate = rate(done, checkpoint.getStartedAt(), now);
+    Instant eta = null;
+    if (total != null && rate != null && rate > 0) {
+      long remaining = Math.max(0, total - done);
+      eta = now.plusSeconds(Math.round(remaining / rate));
+    }
+    return new IndexProgressDto(
+      repository.getNamespace(), repository.getName(), true, status.getPendingUpdates(),
+      done, total, rate, eta, status.getLastUpdate()
+    );
+  }
+
+  private static Double rate(long done, Instant startedAt, Instant now) {
+    if (startedAt == null) {
+      return null;
+    }
+    long millis = Duration.between(startedAt, now).toMillis();
+    if (millis <= 0) {
+      return null;
+    }
+    return done * 1000d / millis;
+  }
+}
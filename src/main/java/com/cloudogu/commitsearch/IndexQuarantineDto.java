@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import sonia.scm.repository.Repository;
+
+import java.time.Instant;
+
+/**
+ * Repository whose index tasks failed, as reported by the {@link IndexResource}.
+ */
+@Getter
+@AllArgsConstructor
+public class IndexQuarantineDto {
+
+  private String namespace;
+  private String name;
+  /**
+   * Number of index tasks in a row, which failed for the repository.
+   */
+  private int failures;
+  private String lastError;
+  /**
+   * Index tasks for the repository are skipped until this time.
+   */
+  private Instant nextRetry;
+
+  static IndexQuarantineDto of(Repository repository, IndexStatus status) {
+    return new IndexQuarantineDto(
+      repository.getNamespace(), repository.getName(), status.getFailures(), status.getLastError(), status.getNextRetry()
+    );
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import io.swagger.v3.oas.annotations.OpenAPIDefinition;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.apache.shiro.SecurityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.web.VndMediaType;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static sonia.scm.ContextEntry.ContextBuilder.entity;
+import static sonia.scm.NotFoundException.notFound;
+
+@OpenAPIDefinition(tags = {
+  @Tag(name = "Commit Search", description = "Commit search plugin provided endpoints")
+})
+@Path(IndexResource.PATH)
+public class IndexResource {
+
+  static final String PATH = "v2/commit-search/index";
+  static final String PERMISSION = "commitSearch:reindex";
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexResource.class);
+
+  private final RepositoryManager repositoryManager;
+  private final IndexStatusStore indexStatusStore;
+  private final IndexTaskDispatcher dispatcher;
+  private final StartupIndexScheduler scheduler;
+
+  @Inject
+  public IndexResource(RepositoryManager repositoryManager,
+                       IndexStatusStore indexStatusStore,
+                       IndexTaskDispatcher dispatcher,
+                       StartupIndexScheduler scheduler) {
+    this.repositoryManager = repositoryManager;
+    this.indexStatusStore = indexStatusStore;
+    this.dispatcher = dispatcher;
+    this.scheduler = scheduler;
+  }
+
+  @POST
+  @Path("reindex")
+  @Operation(
+    summary = "Reindex all repositories",
+    description = "Rebuilds the commit index of all repositories in the background.",
+    tags = "Commit Search",
+    operationId = "commit_search_reindex_all"
+  )
+  @ApiResponse(responseCode = "202", description = "reindex was scheduled")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"commitSearch:reindex\" privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public Response reindexAll() {
+    checkPermission();
+    return reindex(repositoryManager.getAll());
+  }
+
+  @POST
+  @Path("reindex/{namespace}")
+  @Operation(
+    summary = "Reindex repositories of a namespace",
+    description = "Rebuilds the commit index of all repositories of the namespace in the background.",
+    tags = "Commit Search",
+    operationId = "commit_search_reindex_namespace"
+  )
+  @ApiResponse(responseCode = "202", description = "reindex was scheduled")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"commitSearch:reindex\" privilege")
+  @ApiResponse(
+    responseCode = "404",
+    description = "not found, no repository with the namespace available",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public Response reindexNamespace(@PathParam("namespace") String namespace) {
+    checkPermission();
+    List<Repository> repositories = repositoryManager.getAll()
+      .stream()
+      .filter(repository -> namespace.equals(repository.getNamespace()))
+      .collect(Collectors.toList());
+    if (repositories.isEmpty()) {
+      throw notFound(entity("Namespace", namespace));
+    }
+    return reindex(repositories);
+  }
+
+  @POST
+  @Path("reindex/{namespace}/{name}")
+  @Operation(
+    summary = "Reindex repository",
+    description = "Rebuilds the commit index of the repository in the background.",
+    tags = "Commit Search",
+    operationId = "commit_search_reindex_repository"
+  )
+  @ApiResponse(responseCode = "202", description = "reindex was scheduled")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"commitSearch:reindex\" privilege")
+  @ApiResponse(
+    responseCode = "404",
+    description = "not found, no repository with the specified namespace and name available",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public Response reindexRepository(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+    checkPermission();
+    return reindex(List.of(repository(namespace, name)));
+  }
+
+  @GET
+  @Path("status")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(
+    summary = "Index progress",
+    description = "Returns the index progress of all repositories with a running reindex or pending index updates.",
+    tags = "Commit Search",
+    operationId = "commit_search_index_status"
+  )
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = IndexProgressDto.class))
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"commitSearch:reindex\" privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public List<IndexProgressDto> getStatus() {
+    checkPermission();
+    Instant now = Instant.now();
+    return repositoryManager.getAll()
+      .stream()
+      .map(repository -> progress(repository, now))
+      .flatMap(Optional::stream)
+      .filter(progress -> progress.isReindexing() || progress.getPendingUpdates() > 0)
+      .collect(Collectors.toList());
+  }
+
+  @GET
+  @Path("status/{namespace}/{name}")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(
+    summary = "Index progress of repository",
+    description = "Returns the index progress of the repository.",
+    tags = "Commit Search",
+    operationId = "commit_search_index_status_repository"
+  )
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = IndexProgressDto.class))
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"commitSearch:reindex\" privilege")
+  @ApiResponse(
+    responseCode = "404",
+    description = "not found, no repository with the specified namespace and name available or the repository was never indexed",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public IndexProgressDto getRepositoryStatus(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+    checkPermission();
+    Repository repository = repository(namespace, name);
+    return progress(repository, Instant.now())
+      .orElseThrow(() -> notFound(entity(IndexStatus.class, repository.getId()).in(repository)));
+  }
+
+  @GET
+  @Path("quarantine")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(
+    summary = "Failed repositories",
+    description = "Returns all repositories whose last index tasks failed. Index tasks for these repositories are "
+      + "skipped until their next retry. A reindex of the repository lifts the quarantine.",
+    tags = "Commit Search",
+    operationId = "commit_search_index_quarantine"
+  )
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = IndexQuarantineDto.class))
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"commitSearch:reindex\" privilege")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public List<IndexQuarantineDto> getQuarantine() {
+    checkPermission();
+    return repositoryManager.getAll()
+      .stream()
+      .map(repository -> indexStatusStore.get(repository)
+        .filter(status -> status.getFailures() > 0)
+        .map(status -> IndexQuarantineDto.of(repository, status)))
+      .flatMap(Optional::stream)
+      .collect(Collectors.toList());
+  }
+
+  private Optional<IndexProgressDto> progress(Repository repository, Instant now) {
+    return indexStatusStore.get(repository).map(status -> IndexProgressDto.of(repository, status, now));
+  }
+
+  private Repository repository(String namespace, String name) {
+    NamespaceAndName namespaceAndName = new NamespaceAndName(namespace, name);
+    Repository repository = repositoryManager.get(namespaceAndName);
+    if (repository == null) {
+      throw notFound(entity(namespaceAndName));
+    }
+    return repository;
+  }
+
+  /**
+   * Requests the reindex of the repositories. Repositories with a running reindex are skipped, so that their
+   * checkpoint is kept. The tasks of more than one repository are submitted through the bounded window of the
+   * startup check, so that a reindex of all repositories does not flood the search engine.
+   */
+  private Response reindex(Collection<Repository> repositories) {
+    List<Repository> requested = repositories.stream()
+      .filter(this::isNotReindexing)
+      .collect(Collectors.toList());
+    LOG.info(
+      "reindex of {} repositories was requested, skip {} repositories with a running reindex",
+      requested.size(), repositories.size() - requested.size()
+    );
+    requested.forEach(indexStatusStore::reindexRequested);
+    if (requested.size() == 1) {
+      Repository repository = requested.get(0);
+      dispatcher.submit(repository, new IndexerTask(repository, null));
+    } else if (!requested.isEmpty()) {
+      scheduler.submit(requested);
+    }
+    return Response.accepted().build();
+  }
+
+  private boolean isNotReindexing(Repository repository) {
+    return indexStatusStore.get(repository)
+      .map(status -> !status.isReindexing())
+      .orElse(true);
+  }
+
+  private static void checkPermission() {
+    SecurityUtils.getSubject().checkPermission(PERMISSION);
+  }
+}
@@ -16,9 +16,9 @@
 
 package com.cloudogu.commitsearch;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import sonia.scm.repository.Repository;
 import sonia.scm.xml.XmlInstantAdapter;
 
 import jakarta.xml.bind.annotation.XmlAccessType;
@@ -26,11 +26,12 @@ import jakarta.xml.bind.annotation.XmlAccessorType;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
 
 @Data
 @XmlRootElement
 @NoArgsConstructor
-@AllArgsConstructor
 @XmlAccessorType(XmlAccessType.FIELD)
 public class IndexStatus {
 
@@ -40,9 +41,89 @@ public class IndexStatus {
   @XmlJavaTypeAdapter(XmlInstantAdapter.class)
   private Instant lastUpdate;
   private int version;
+  private ReindexCheckpoint checkpoint;
+  /**
+   * Number of requested index updates, which are not yet processed.
+   */
+  private int pendingUpdates;
+  /**
+   * Head revisions of the branches at the last index update. {@code null} if the repository does not support
+   * branches or the index was built by a previous version of the plugin.
+   */
+  private Map<String, String> branches;
+  /**
+   * Number of changesets stored by the last reindex.
+   */
+  private long commitCount;
+  /**
+   * {@code true} if the documents of the repository contain the changed paths.
+   */
+  private boolean changedPaths;
+  /**
+   * Number of index tasks in a row, which failed for the repository.
+   */
+  private int failures;
+  /**
+   * Error of the last failed index task.
+   */
+  private String lastError;
+  /**
+   * Index tasks for the repository are skipped until this time, because of previous failures.
+   */
+  @XmlJavaTypeAdapter(XmlInstantAdapter.class)
+  private Instant nextRetry;
+
+  public IndexStatus(String revision, Instant lastUpdate, int version) {
+    this.revision = revision;
+    this.lastUpdate = lastUpdate;
+    this.version = version;
+  }
+
+  /**
+   * Returns a deep copy of the status, which can be modified without affecting the original.
+   */
+  IndexStatus copy() {
+    IndexStatus copy = new IndexStatus(revision, lastUpdate, version);
+    copy.checkpoint = checkpoint != null ? checkpoint.copy() : null;
+    copy.pendingUpdates = pendingUpdates;
+    copy.branches = branches != null ? new HashMap<>(branches) : null;
+    copy.commitCount = commitCount;
+    copy.changedPaths = changedPaths;
+    copy.failures = failures;
+    copy.lastError = lastError;
+    copy.nextRetry = nextRetry;
+    return copy;
+  }
 
   public boolean isEmpty() {
     return EMPTY.equals(revision);
   }
 
+  /**
+   * Returns {@code true} if a reindex was started, but has not been finished yet.
+   */
+  public boolean isReindexing() {
+    return checkpoint != null;
+  }
+
+  /**
+   * Returns {@code true} if index tasks for the repository should be skipped, because they failed
+   * repeatedly and the next retry is not yet due.
+   */
+  public boolean isQuarantined(Instant now) {
+    return nextRetry != null && now.isBefore(nextRetry);
+  }
+
+  /**
+   * Returns {@code true} if the index was completely built with the current version,
+   * all requested updates were processed and the repository was not modified since.
+   */
+  boolean isUpToDate(Repository repository) {
+    if (version != IndexedChangeset.VERSION || isEmpty() || isReindexing() || pendingUpdates > 0 || lastUpdate == null) {
+      return false;
+    }
+    Long lastModified = repository.getLastModified();
+    return lastModified == null || lastModified <= lastUpdate.toEpochMilli();
+  }
+
 }
@@ -16,6 +16,10 @@
 
 package com.cloudogu.commitsearch;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import sonia.scm.repository.Repository;
 import sonia.scm.store.DataStore;
 import sonia.scm.store.DataStoreFactory;
@@ -23,20 +27,62 @@ import sonia.scm.store.DataStoreFactory;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.cloudogu.commitsearch.IndexStatus.EMPTY;
 
+/**
+ * Keeps the index status of all repositories in memory. Modifications are written to the underlying store
+ * periodically and on shutdown, unless the flush interval is zero or less. Pending updates and checkpoints are
+ * written immediately together with the rest of the status, because the startup check relies on them to find
+ * the repositories whose index is incomplete after a crash. A lost modification of the other fields only leads to
+ * needless work.
+ * The cached status is only modified by the synchronized methods of the store, callers get copies.
+ */
 @Singleton
 public class IndexStatusStore {
 
+  private static final Logger LOG = LoggerFactory.getLogger(IndexStatusStore.class);
+
   private static final String STORE_NAME = "changeset-search-status";
 
   private final DataStore<IndexStatus> store;
+  private final ScheduledExecutorService executor;
+  private final boolean writeBehind;
+  private final IndexConfiguration configuration;
+
+  // guarded by this
+  private Map<String, IndexStatus> cache;
+  private final Set<String> dirty = new HashSet<>();
 
   @Inject
-  public IndexStatusStore(DataStoreFactory storeFactory) {
+  public IndexStatusStore(DataStoreFactory storeFactory, IndexConfiguration configuration) {
+    this(storeFactory, configuration, configuration.getStatusFlushInterval() > 0 ? createExecutor() : null);
+  }
+
+  @VisibleForTesting
+  IndexStatusStore(DataStoreFactory storeFactory, IndexConfiguration configuration, ScheduledExecutorService executor) {
     this.store = storeFactory.withType(IndexStatus.class).withName(STORE_NAME).build();
+    this.executor = executor;
+    this.configuration = configuration;
+    long interval = configuration.getStatusFlushInterval();
+    this.writeBehind = executor != null && interval > 0;
+    if (writeBehind) {
+      executor.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.SECONDS);
+    }
+  }
+
+  private static ScheduledExecutorService createExecutor() {
+    return Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("CommitSearchStatusFlush-%d").setDaemon(true).build()
+    );
   }
 
   public void empty(Repository repository) {
@@ -47,17 +93,233 @@ public class IndexStatusStore {
     return new IndexStatus(revision, Instant.now(), IndexedChangeset.VERSION);
   }
 
-  public void update(Repository repository, String revision) {
-    store.put(repository.getId(), status(revision));
+  public synchronized void update(Repository repository, String revision) {
+    put(repository, status(revision));
   }
 
-  void update(Repository repository, String revision, int version) {
+  synchronized void update(Repository repository, String revision, int version) {
     IndexStatus status = status(revision);
     status.setVersion(version);
-    store.put(repository.getId(), status);
+    put(repository, status);
+  }
+
+  /**
+   * Marks the index as up to date with the given revision and the given heads of the branches.
+   */
+  synchronized void update(Repository repository, String revision, Map<String, String> branches) {
+    IndexStatus status = status(revision);
+    status.setBranches(new HashMap<>(branches));
+    put(repository, status);
+  }
+
+  /**
+   * Marks the index as built with the current version without changing the indexed revisions,
+   * because the documents of the previous version are compatible.
+   */
+  synchronized void upgraded(Repository repository) {
+    current(repository).ifPresent(status -> {
+      status.setVersion(IndexedChangeset.VERSION);
+      write(repository.getId(), status);
+    });
+  }
+
+  /**
+   * Stores the number of changesets of the repository, which were stored by a reindex.
+   */
+  synchronized void commitCount(Repository repository, long commitCount) {
+    current(repository).ifPresent(status -> {
+      status.setCommitCount(commitCount);
+      write(repository.getId(), status);
+    });
+  }
+
+  /**
+   * Stores whether the documents of the repository were written with changed paths.
+   */
+  synchronized void changedPaths(Repository repository, boolean changedPaths) {
+    current(repository).ifPresent(status -> {
+      status.setChangedPaths(changedPaths);
+      write(repository.getId(), status);
+    });
+  }
+
+  /**
+   * Stores the progress of a running reindex. The index is treated as empty until the reindex is finished
+   * by a call to {@link #update(Repository, String)}.
+   */
+  synchronized void checkpoint(Repository repository, ReindexCheckpoint checkpoint) {
+    IndexStatus status = status(EMPTY);
+    // the caller keeps on advancing its checkpoint, so we store a snapshot
+    status.setCheckpoint(checkpoint.copy());
+    put(repository, status);
+    writeThrough(repository.getId());
+  }
+
+  /**
+   * Marks the index of the repository as empty, so that the next index task rebuilds it.
+   * The reindex is counted as pending update.
+   */
+  synchronized void reindexRequested(Repository repository) {
+    IndexStatus status = status(EMPTY);
+    put(repository, status);
+    // an explicit reindex lifts the quarantine of the repository
+    clearFailures(status);
+    // the pending update is written through together with the empty status
+    updateRequested(repository);
+  }
+
+  /**
+   * Records a failed index task for the repository. Further tasks are skipped until the next retry, which is
+   * delayed exponentially with the number of failures in a row.
+   */
+  synchronized void failed(Repository repository, String error) {
+    IndexStatus status = current(repository).orElseGet(() -> status(EMPTY));
+    int failures = status.getFailures() + 1;
+    status.setFailures(failures);
+    status.setLastError(error);
+    status.setNextRetry(nextRetry(failures));
+    write(repository.getId(), status);
+  }
+
+  private Instant nextRetry(int failures) {
+    long backoff = configuration.getQuarantineBackoff();
+    if (backoff <= 0) {
+      return null;
+    }
+    long max = Math.max(backoff, configuration.getQuarantineMaxBackoff());
+    int doublings = Math.min(failures - 1, 32);
+    long delay = backoff > max >> doublings ? max : backoff << doublings;
+    return Instant.now().plusSeconds(delay);
+  }
+
+  /**
+   * Records a successful index task for the repository and lifts its quarantine.
+   */
+  synchronized void succeeded(Repository repository) {
+    current(repository)
+      .filter(status -> status.getFailures() > 0)
+      .ifPresent(status -> {
+        clearFailures(status);
+        write(repository.getId(), status);
+      });
+  }
+
+  private void clearFailures(IndexStatus status) {
+    status.setFailures(0);
+    status.setLastError(null);
+    status.setNextRetry(null);
+  }
+
+  /**
+   * Marks that an index update for the repository was requested, e.g. because of a push.
+   */
+  synchronized void updateRequested(Repository repository) {
+    current(repository).ifPresent(status -> {
+      status.setPendingUpdates(status.getPendingUpdates() + 1);
+      write(repository.getId(), status);
+      writeThrough(repository.getId());
+    });
+  }
+
+  /**
+   * Marks the given number of requested index updates as processed, after the index was brought up to date
+   * successfully. The caller passes the number of updates which were pending when it started, so that updates
+   * of failed or dropped tasks are processed by the next successful one, while updates requested in the meantime
+   * stay pending.
+   */
+  synchronized void updatesProcessed(Repository repository, int processed) {
+    current(repository)
+      .filter(status -> status.getPendingUpdates() > 0 && processed > 0)
+      .ifPresent(status -> {
+        status.setPendingUpdates(Math.max(0, status.getPendingUpdates() - processed));
+        write(repository.getId(), status);
+        writeThrough(repository.getId());
+      });
+  }
+
+  private void put(Repository repository, IndexStatus status) {
+    current(repository).ifPresent(previous -> {
+      status.setPendingUpdates(previous.getPendingUpdates());
+      status.setCommitCount(previous.getCommitCount());
+      status.setChangedPaths(previous.isChangedPaths());
+      status.setFailures(previous.getFailures());
+      status.setLastError(previous.getLastError());
+      status.setNextRetry(previous.getNextRetry());
+    });
+    write(repository.getId(), status);
+  }
+
+  private void write(String repositoryId, IndexStatus status) {
+    cache().put(repositoryId, status);
+    if (writeBehind) {
+      dirty.add(repositoryId);
+    } else {
+      store.put(repositoryId, status);
+    }
+  }
+
+  /**
+   * Writes the cached status of the repository to the underlying store right away, including the buffered
+   * modifications, so that the stored status never has fewer pending updates than the index has processed.
+   */
+  private void writeThrough(String repositoryId) {
+    if (writeBehind) {
+      store.put(repositoryId, cache().get(repositoryId));
+      dirty.remove(repositoryId);
+    }
+  }
+
+  /**
+   * Returns a copy of the status of the repository. Modifications of the copy are not stored.
+   */
+  public synchronized Optional<IndexStatus> get(Repository repository) {
+    return current(repository).map(IndexStatus::copy);
+  }
+
+  private Optional<IndexStatus> current(Repository repository) {
+    return Optional.ofNullable(cache().get(repository.getId()));
+  }
+
+  /**
+   * Loads the status of all repositories in one pass on first access.
+   */
+  private Map<String, IndexStatus> cache() {
+    if (cache == null) {
+      cache = new HashMap<>(store.getAll());
+      LOG.debug("loaded index status of {} repositories", cache.size());
+    }
+    return cache;
+  }
+
+  /**
+   * Writes all modified status entries to the underlying store.
+   */
+  synchronized void flush() {
+    if (dirty.isEmpty()) {
+      return;
+    }
+    LOG.trace("write index status of {} repositories", dirty.size());
+    for (String repositoryId : dirty) {
+      store.put(repositoryId, cache.get(repositoryId));
+    }
+    dirty.clear();
+  }
+
+  private void flushSafely() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      LOG.warn("failed to write index status, retry with next flush", e);
+    }
   }
 
-  public Optional<IndexStatus> get(Repository repository) {
-    return store.getOptional(repository.getId());
+  /**
+   * Stops the periodic flush and writes the remaining modifications.
+   */
+  void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    flush();
   }
 }
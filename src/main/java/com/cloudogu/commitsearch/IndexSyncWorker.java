@@ -16,14 +16,27 @@
 
 package com.cloudogu.commitsearch;
 
+import com.google.common.collect.Iterables;
+import lombok.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sonia.scm.repository.Changeset;
+import sonia.scm.repository.InternalRepositoryException;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.api.Command;
 import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.search.SearchEngine;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class IndexSyncWorker {
 
@@ -32,12 +45,22 @@ class IndexSyncWorker {
   private final IndexStatusStore indexStatusStore;
   private final Indexer indexer;
   private final RepositoryService repositoryService;
+  private final IndexConfiguration configuration;
+  private final IndexMetrics metrics;
+  private final IndexMigration migration;
+  private final SearchEngine searchEngine;
+  private final IndexTaskDispatcher dispatcher;
   private final Repository repository;
 
   IndexSyncWorker(IndexingContext indexingContext) {
     this.indexStatusStore = indexingContext.getIndexStatusStore();
     this.indexer = indexingContext.getIndexer();
     this.repositoryService = indexingContext.getRepositoryService();
+    this.configuration = indexingContext.getConfiguration();
+    this.metrics = indexingContext.getMetrics();
+    this.migration = indexingContext.getMigration();
+    this.searchEngine = indexingContext.getSearchEngine();
+    this.dispatcher = indexingContext.getDispatcher();
     this.repository = repositoryService.getRepository();
   }
 
@@ -45,15 +68,41 @@ class IndexSyncWorker {
     Optional<IndexStatus> status = indexStatusStore.get(repository);
     if (status.isPresent()) {
       IndexStatus indexStatus = status.get();
-      if (indexStatus.getVersion() != IndexedChangeset.VERSION) {
+      IndexMigration.Plan plan = migration.plan(indexStatus.getVersion());
+      if (plan == IndexMigration.Plan.BUMP) {
+        LOG.debug(
+          "index of repository {} in version {} is compatible with version {}",
+          repository, indexStatus.getVersion(), IndexedChangeset.VERSION
+        );
+        indexStatusStore.upgraded(repository);
+        plan = IndexMigration.Plan.NONE;
+      }
+      if (plan == IndexMigration.Plan.UPGRADE) {
+        LOG.debug(
+          "found index of repository {} in version {} required is {}, upgrade fields {}",
+          repository, indexStatus.getVersion(), IndexedChangeset.VERSION, migration.changedFields(indexStatus.getVersion())
+        );
+        metrics.versionMismatch();
+        upgrade();
+      } else if (plan == IndexMigration.Plan.REINDEX) {
         LOG.debug(
           "found index of repository {} in version {} required is {}, trigger reindex",
           repository, indexStatus.getVersion(), IndexedChangeset.VERSION
         );
+        metrics.versionMismatch();
         reIndex();
+      } else if (indexStatus.isReindexing()) {
+        LOG.debug("found interrupted reindex for repository {}, resume reindex", repository);
+        resumeReIndex(indexStatus.getCheckpoint());
       } else if (indexStatus.isEmpty()) {
         LOG.trace("no previous index found for repository {}, trigger reindex", repository);
         reIndex();
+      } else if (indexStatus.isChangedPaths() != indexer.isChangedPaths()) {
+        LOG.debug("changed paths were enabled or disabled for repository {}, rewrite documents", repository);
+        upgrade();
+      } else if (BranchSync.isSupported(repositoryService)) {
+        LOG.trace("previous index exists for repository {}, sync branches", repository);
+        syncBranches(indexStatus, changesets);
       } else {
         LOG.trace("previous index exists for repository {}, trigger update", repository);
         ensureIndexIsUpToDate(indexStatus.getRevision(), changesets);
@@ -64,6 +113,62 @@ class IndexSyncWorker {
     }
   }
 
+  private void syncBranches(IndexStatus status, UpdatedChangesets changesets) {
+    BranchSync branchSync = branchSync();
+    BranchSync.Heads heads = branchSync.heads();
+    if (heads.isEmpty()) {
+      LOG.trace("no branches found for repository {}", repository);
+      emptyRepository();
+      return;
+    }
+    Map<String, String> previous = previousHeads(status, heads);
+    boolean hasChangesets = changesets != null && !changesets.isEmpty();
+    if (!hasChangesets && heads.getRevisions().equals(previous)) {
+      LOG.debug("heads of all branches of repository {} are indexed", repository);
+      return;
+    }
+    if (hasChangesets && requiresReindex(changesets)) {
+      LOG.debug(
+        "{} changesets were removed from repository {}, trigger reindex instead of deleting them one by one",
+        changesets.getRemovedIds().size(), repository
+      );
+      reIndex();
+      return;
+    }
+
+    // changesets of larger pushes are not mapped upfront, the branch sync reads them in pages
+    boolean inlined = hasChangesets && !changesets.hasMissingDocuments();
+    Set<String> covered = inlined ? new HashSet<>(changesets.getDocuments().keySet()) : Collections.emptySet();
+    metrics.update(() -> {
+      if (hasChangesets) {
+        indexer.delete(changesets.getRemovedIds());
+      }
+      if (inlined) {
+        indexer.storeDocuments(changesets.getDocuments().values());
+      }
+      branchSync.sync(previous, heads, covered);
+      String revision = repositoryService.getChangesetsCommand().getLatestChangeset()
+        .map(Changeset::getId)
+        .orElse(status.getRevision());
+      indexStatusStore.update(repository, revision, heads.getRevisions());
+    });
+  }
+
+  /**
+   * Returns the heads of the last index update. An index status written before the heads were recorded
+   * only knows the indexed revision, which is taken as the head of the default branch, so that the other
+   * branches are read from there.
+   */
+  private Map<String, String> previousHeads(IndexStatus status, BranchSync.Heads heads) {
+    if (status.getBranches() != null) {
+      return status.getBranches();
+    }
+    if (heads.getDefaultBranch() == null) {
+      return Collections.emptyMap();
+    }
+    return Collections.singletonMap(heads.getDefaultBranch(), status.getRevision());
+  }
+
   private void ensureIndexIsUpToDate(String revision, UpdatedChangesets changesets) {
     Optional<Changeset> latestChangeset = repositoryService.getChangesetsCommand().getLatestChangeset();
     if (latestChangeset.isPresent()) {
@@ -80,13 +185,96 @@ class IndexSyncWorker {
       LOG.debug("index of repository {} is up to date", repository);
       return;
     }
-    if (changesets.isEmpty()) {
-      throw new IllegalArgumentException("A new 'top changeset' without updated changesets is not possible");
+    if (changesets == null || changesets.isEmpty()) {
+      catchUp(from, latestChangeset);
+      return;
     }
 
-    indexer.delete(changesets.getRemovedChangesets());
-    indexer.store(changesets.getAddedChangesets());
-    indexStatusStore.update(repository, latestChangeset.getId());
+    if (requiresReindex(changesets)) {
+      LOG.debug(
+        "{} changesets were removed from repository {}, trigger reindex instead of deleting them one by one",
+        changesets.getRemovedIds().size(), repository
+      );
+      reIndex();
+      return;
+    }
+    if (changesets.hasMissingDocuments()) {
+      LOG.debug("changesets of push to repository {} were not mapped upfront, read them in pages", repository);
+      indexer.delete(changesets.getRemovedIds());
+      catchUp(from, latestChangeset);
+      return;
+    }
+
+    Map<String, String> heads = branchHeads();
+    metrics.update(() -> {
+      indexer.delete(changesets.getRemovedIds());
+      indexer.storeDocuments(changesets.getDocuments().values());
+      updateStatus(latestChangeset.getId(), heads);
+    });
+  }
+
+  /**
+   * Indexes the changesets, which were added since the given revision without a hook event,
+   * e.g. because the event was lost during a restart.
+   */
+  private void catchUp(String from, Changeset latestChangeset) {
+    if (!ChangesetPager.isSupported(repositoryService) || resolveChangeset(from) == null) {
+      LOG.debug("could not find indexed revision {} in repository {}, trigger reindex", from, repository);
+      reIndex();
+      return;
+    }
+    LOG.debug("index of repository {} is at revision {}, catch up to {}", repository, from, latestChangeset.getId());
+    Map<String, String> heads = branchHeads();
+    metrics.update(() -> {
+      VisitedChangesets visited = new VisitedChangesets();
+      ChangesetPager pager = new ChangesetPager(repositoryService, catchUpPageSize(), from);
+      this.<List<IndexedChangeset>>pipeline().run(
+        sink -> pager.forEachPage(page -> sink.accept(indexer.documents(visited.filter(page)))),
+        indexer::storeDocuments
+      );
+      updateStatus(latestChangeset.getId(), heads);
+    });
+  }
+
+  private BranchSync branchSync() {
+    return new BranchSync(repositoryService, indexer, catchUpPageSize());
+  }
+
+  /**
+   * Returns the current heads of the branches or {@code null}, if the repository does not support branches.
+   * The heads have to be read before the changesets are stored, so that later commits are not missed.
+   */
+  private Map<String, String> branchHeads() {
+    if (BranchSync.isSupported(repositoryService)) {
+      return branchSync().heads().getRevisions();
+    }
+    return null;
+  }
+
+  private void updateStatus(String revision, Map<String, String> heads) {
+    if (heads != null) {
+      indexStatusStore.update(repository, revision, heads);
+    } else {
+      indexStatusStore.update(repository, revision);
+    }
+  }
+
+  private int catchUpPageSize() {
+    int pageSize = configuration.getPageSize();
+    return pageSize > 0 ? pageSize : Integer.MAX_VALUE;
+  }
+
+  private Changeset resolveChangeset(String id) {
+    try {
+      return repositoryService.getLogCommand().getChangeset(id);
+    } catch (IOException e) {
+      throw new InternalRepositoryException(repository, "failed to read changeset " + id, e);
+    }
+  }
+
+  private boolean requiresReindex(UpdatedChangesets changesets) {
+    int threshold = configuration.getDeleteReindexThreshold();
+    return threshold > 0 && changesets.getRemovedIds().size() > threshold;
   }
 
   private static boolean noChangesDetected(String from, String to, UpdatedChangesets changesets) {
@@ -94,18 +282,231 @@ class IndexSyncWorker {
   }
 
   void reIndex() {
-    LOG.debug("start reindexing for repository {}", repository);
-    indexer.deleteAll();
+    metrics.reindex(() -> rebuild(false));
+  }
+
+  /**
+   * Rewrites the documents of the repository without clearing the index first,
+   * so that the documents of the previous version remain searchable until they are replaced.
+   */
+  private void upgrade() {
+    metrics.reindex(() -> rebuild(true));
+  }
+
+  private void rebuild(boolean upgrade) {
+    boolean shadow = !upgrade && configuration.isShadowReindex();
+    if (upgrade) {
+      LOG.debug("start rolling upgrade for repository {}", repository);
+    } else if (shadow) {
+      LOG.debug("start shadow reindex for repository {}", repository);
+    } else {
+      LOG.debug("start reindexing for repository {}", repository);
+      indexer.deleteAll();
+    }
 
     if (repositoryService.isSupported(Command.CHANGESETS)) {
       Optional<Changeset> latestChangeset = repositoryService.getChangesetsCommand().getLatestChangeset();
       if (latestChangeset.isPresent()) {
-        indexer.store(repositoryService.getChangesetsCommand().getChangesets());
-        indexStatusStore.update(repository, latestChangeset.get().getId());
+        String revision = latestChangeset.get().getId();
+        BranchSync.Heads pinned = pinHeads();
+        Map<String, String> heads = pinned != null ? pinned.getRevisions() : null;
+        ReindexCheckpoint checkpoint = new ReindexCheckpoint(revision, Instant.now());
+        checkpoint.setHeads(heads);
+        checkpoint.setDefaultBranch(pinned != null ? pinned.getDefaultBranch() : null);
+        checkpoint.setUpgrade(upgrade);
+        if (shadow) {
+          checkpoint.setGeneration(String.valueOf(checkpoint.getStartedAt().toEpochMilli()));
+        }
+        indexStatusStore.checkpoint(repository, checkpoint);
+        VisitedChangesets visited = new VisitedChangesets();
+        indexer.setGeneration(checkpoint.getGeneration());
+        long count = storeHistory(checkpoint, visited);
+        removePreviousGeneration(checkpoint, visited, false);
+        updateStatus(revision, BranchSync.isSupported(repositoryService) ? heads : null);
+        indexStatusStore.commitCount(repository, count);
       } else {
+        if (upgrade || shadow) {
+          indexer.deleteAll();
+        }
         indexStatusStore.empty(repository);
       }
+      indexStatusStore.changedPaths(repository, indexer.isChangedPaths());
+    }
+  }
+
+  private void resumeReIndex(ReindexCheckpoint checkpoint) {
+    Optional<Changeset> latestChangeset = repositoryService.getChangesetsCommand().getLatestChangeset();
+    if (latestChangeset.isPresent() && canResume(checkpoint, latestChangeset.get())) {
+      LOG.debug(
+        "resume reindex of repository {} started at {} with offset {} from {} of branch {}",
+        repository, checkpoint.getStartedAt(), checkpoint.getOffset(), checkpoint.getStart(), checkpoint.getBranch()
+      );
+      metrics.reindex(() -> {
+        VisitedChangesets visited = new VisitedChangesets();
+        indexer.setGeneration(checkpoint.getGeneration());
+        storeHistory(checkpoint, visited);
+        removePreviousGeneration(checkpoint, visited, true);
+        indexStatusStore.changedPaths(repository, indexer.isChangedPaths());
+      });
+      catchUpResumed(checkpoint, latestChangeset.get());
+    } else {
+      LOG.debug("repository {} has changed since the reindex was interrupted, start over", repository);
+      if (checkpoint.isUpgrade()) {
+        upgrade();
+      } else {
+        reIndex();
+      }
+    }
+  }
+
+  /**
+   * A reindex walks the history from the heads it was started with, so new commits do not shift its pages.
+   * Only a checkpoint of a previous version pages from the current heads of the branches, which must not have moved.
+   */
+  private boolean canResume(ReindexCheckpoint checkpoint, Changeset latestChangeset) {
+    return pinnedHeads(checkpoint) != null || latestChangeset.getId().equals(checkpoint.getRevision());
+  }
+
+  /**
+   * Stores the changesets, which were pushed after the resumed reindex was started,
+   * and records the current heads as indexed.
+   */
+  private void catchUpResumed(ReindexCheckpoint checkpoint, Changeset latestChangeset) {
+    if (checkpoint.getHeads() == null || !BranchSync.isSupported(repositoryService)) {
+      if (latestChangeset.getId().equals(checkpoint.getRevision())) {
+        // without synced heads, e.g. of a checkpoint of a previous version, the next sync starts from the default branch
+        indexStatusStore.update(repository, checkpoint.getRevision());
+      } else {
+        catchUp(checkpoint.getRevision(), latestChangeset);
+      }
+      return;
+    }
+    metrics.update(() -> {
+      BranchSync branchSync = branchSync();
+      BranchSync.Heads heads = branchSync.heads();
+      if (!heads.getRevisions().equals(checkpoint.getHeads())) {
+        LOG.debug("branches of repository {} have moved since the reindex was started, store new changesets", repository);
+        branchSync.sync(checkpoint.getHeads(), heads, Collections.emptySet());
+      }
+      indexStatusStore.update(repository, latestChangeset.getId(), heads.getRevisions());
+    });
+  }
+
+  /**
+   * Returns the heads from which the history of a reindex is walked, or {@code null} if the current heads of the
+   * branches have to be used, because the checkpoint was written by a previous version.
+   */
+  private Map<String, String> pinnedHeads(ReindexCheckpoint checkpoint) {
+    if (checkpoint.getHeads() != null) {
+      return checkpoint.getHeads();
+    }
+    if (!repositoryService.isSupported(Command.BRANCHES)) {
+      return Collections.singletonMap(null, checkpoint.getRevision());
+    }
+    return null;
+  }
+
+  /**
+   * Returns the current heads of the branches, from which the history of a reindex is walked,
+   * or {@code null} if the repository does not support branches.
+   */
+  private BranchSync.Heads pinHeads() {
+    if (repositoryService.isSupported(Command.BRANCHES)) {
+      return branchSync().heads();
+    }
+    return null;
+  }
+
+  /**
+   * Stores the history and returns the number of stored changesets.
+   * The stored changesets are marked as visited, if they are written by a shadow reindex.
+   */
+  private long storeHistory(ReindexCheckpoint checkpoint, VisitedChangesets visited) {
+    int pageSize = configuration.getPageSize();
+    if (pageSize > 0 && ChangesetPager.isSupported(repositoryService)) {
+      LOG.trace("store history of repository {} in pages of {} changesets", repository, pageSize);
+      // branches share most of their history, every changeset is stored only once
+      ChangesetPager pager = new ChangesetPager(repositoryService, pageSize);
+      Map<String, String> heads = pinnedHeads(checkpoint);
+      int pagesPerTask = configuration.getPagesPerTask();
+      AtomicInteger written = new AtomicInteger();
+      this.<Page>pipeline().run(
+        sink -> {
+          ChangesetPager.PageConsumer pages = (changesets, next) -> sink.accept(
+            new Page(indexer.documents(visited.filter(changesets)), changesets.size(), next)
+          );
+          ChangesetPager.Position start = new ChangesetPager.Position(
+            checkpoint.getBranch(), checkpoint.getStart(), checkpoint.getOffset()
+          );
+          if (heads != null) {
+            pager.forEachPage(heads, checkpoint.getDefaultBranch(), start, pages);
+          } else {
+            pager.forEachPage(start, pages);
+          }
+        },
+        page -> {
+          if (checkpoint.isUpgrade()) {
+            migration.throttle(page.getRead());
+          }
+          int stored = indexer.storeDocuments(page.getDocuments());
+          ChangesetPager.Position next = page.getNext();
+          checkpoint.advance(next.getBranch(), next.getStart(), next.getOffset());
+          checkpoint.addStored(stored);
+          if (dispatcher.isStopping()) {
+            throw new IndexingPausedException("index is shutting down");
+          }
+          // the checkpoint is stored with the continuation, once the index has committed the written pages
+          if (dispatcher.shouldYield(repository)) {
+            throw new IndexingPausedException("an update for a push is waiting", checkpoint.copy());
+          }
+          if (pagesPerTask > 0 && written.incrementAndGet() >= pagesPerTask) {
+            throw new IndexingPausedException("written " + pagesPerTask + " pages", checkpoint.copy());
+          }
+        }
+      );
+      LOG.debug("stored {} distinct changesets of repository {}", visited.size(), repository);
+      return visited.size();
+    } else {
+      Iterable<Changeset> changesets = repositoryService.getChangesetsCommand().getChangesets();
+      if (checkpoint.getGeneration() != null) {
+        changesets = Iterables.filter(changesets, changeset -> visited.add(changeset.getId()));
+      }
+      return indexer.store(changesets);
+    }
+  }
+
+  /**
+   * Switches over to the documents of a finished shadow reindex by deleting the documents of the previous
+   * generation. The deletes are committed together with the last written documents. Documents which are still
+   * found with their previous generation have either been rewritten by this task or they belong to changesets,
+   * which are no longer reachable. A walk from the beginning has visited every reachable changeset, so the visited
+   * changesets decide on their own. After a resume the visited changesets lack the pages of the previous tasks,
+   * so only then the candidates are checked against the repository before they are deleted.
+   *
+   * @param resumed {@code true} if the walk was resumed from a checkpoint
+   */
+  private void removePreviousGeneration(ReindexCheckpoint checkpoint, VisitedChangesets visited, boolean resumed) {
+    if (checkpoint.getGeneration() == null) {
+      return;
     }
+    AtomicInteger deleted = new AtomicInteger();
+    new PreviousGeneration(searchEngine, repository).forEachPage(checkpoint.getGeneration(), ids -> {
+      List<String> stale = new ArrayList<>();
+      for (String id : ids) {
+        if (!visited.contains(id) && (!resumed || resolveChangeset(id) == null)) {
+          stale.add(id);
+        }
+      }
+      if (!stale.isEmpty()) {
+        indexer.delete(stale);
+        deleted.addAndGet(stale.size());
+      }
+    });
+    LOG.debug("shadow reindex of repository {} finished, deleted {} stale changesets", repository, deleted.get());
+  }
+
+  private <T> PagePipeline<T> pipeline() {
+    return new PagePipeline<>(configuration.getReadAhead(), metrics);
   }
 
   private void emptyRepository() {
@@ -113,4 +514,17 @@ class IndexSyncWorker {
     indexer.deleteAll();
     indexStatusStore.empty(repository);
   }
+
+  /**
+   * Page of the history, whose documents are mapped by the reader, so that only the reader uses the repository.
+   */
+  @Value
+  private static class Page {
+    List<IndexedChangeset> documents;
+    /**
+     * Number of changesets read, including the ones which were visited before.
+     */
+    int read;
+    ChangesetPager.Position next;
+  }
 }
@@ -33,11 +33,27 @@ public class IndexSyncer {
 
   private final RepositoryServiceFactory repositoryServiceFactory;
   private final IndexSyncWorkerFactory indexSyncWorkerFactory;
+  private final IndexConfiguration configuration;
+  private final IndexMetrics metrics;
+  private final ConsistencySweep consistencySweep;
+  private final IndexTaskDispatcher dispatcher;
+  private final RepositoryIndexConfigStore configStore;
 
   @Inject
-  public IndexSyncer(RepositoryServiceFactory repositoryServiceFactory, IndexSyncWorkerFactory indexSyncWorkerFactory) {
+  public IndexSyncer(RepositoryServiceFactory repositoryServiceFactory,
+                     IndexSyncWorkerFactory indexSyncWorkerFactory,
+                     IndexConfiguration configuration,
+                     IndexMetrics metrics,
+                     ConsistencySweep consistencySweep,
+                     IndexTaskDispatcher dispatcher,
+                     RepositoryIndexConfigStore configStore) {
     this.repositoryServiceFactory = repositoryServiceFactory;
     this.indexSyncWorkerFactory = indexSyncWorkerFactory;
+    this.configuration = configuration;
+    this.metrics = metrics;
+    this.consistencySweep = consistencySweep;
+    this.dispatcher = dispatcher;
+    this.configStore = configStore;
   }
 
   public void ensureIndexIsUpToDate(Index<IndexedChangeset> index, Repository repository, UpdatedChangesets changesets) {
@@ -50,6 +66,29 @@ public class IndexSyncer {
     }
   }
 
+  /**
+   * Verifies the index of the repository, stores missing changesets and deletes changesets which no longer exist.
+   */
+  public void verify(Index<IndexedChangeset> index, Repository repository) {
+    try (RepositoryService repositoryService = repositoryServiceFactory.create(repository)) {
+      if (!isSupported(repositoryService) || !ChangesetPager.isSupported(repositoryService)) {
+        LOG.debug("skip verification of repository {}, because it does not support the log command", repository);
+        return;
+      }
+      Stopwatch sw = Stopwatch.createStarted();
+      Indexer indexer = indexer(index, repositoryService);
+      new ConsistencyChecker(repositoryService, indexer, consistencySweep, configuration).verify();
+      LOG.debug("verification of repository {} finished in {}", repository, sw.stop());
+    }
+  }
+
+  private Indexer indexer(Index<IndexedChangeset> index, RepositoryService repositoryService) {
+    boolean changedPaths = configStore.isChangedPaths(repositoryService.getRepository());
+    Indexer indexer = new Indexer(index, repositoryService, configuration, metrics, changedPaths);
+    indexer.setStopping(dispatcher::isStopping);
+    return indexer;
+  }
+
   private boolean isSupported(RepositoryService repositoryService) {
     return repositoryService.isSupported(Command.CHANGESETS);
   }
@@ -57,7 +96,7 @@ public class IndexSyncer {
   private void ensureIndexIsUpToDate(Index<IndexedChangeset> index, RepositoryService repositoryService, UpdatedChangesets changesets) {
     Stopwatch sw = Stopwatch.createStarted();
     try {
-      IndexSyncWorker worker = indexSyncWorkerFactory.create(repositoryService, new Indexer(index, repositoryService));
+      IndexSyncWorker worker = indexSyncWorkerFactory.create(repositoryService, indexer(index, repositoryService));
       worker.ensureIndexIsUpToDate(changesets);
     } finally {
       LOG.debug("ensure index is up to date operation finished in {}", sw.stop());
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+import sonia.scm.search.SearchEngine;
+import sonia.scm.web.security.AdministrationContext;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Throttles the submission of index tasks to the search engine. The search engine runs the tasks of all
+ * repositories on its own workers, so the dispatcher can not add parallelism, it can only hold tasks back.
+ * Updates for pushes of small repositories are submitted right away, their bulk work like startup checks and
+ * reindexes only as long as less than the configured number of bulk tasks is unfinished. Tasks of repositories
+ * with many commits are submitted only as long as less than the configured number of them is unfinished, so that
+ * their long-running tasks can not occupy all workers of the search engine and small repositories are still
+ * updated quickly. Held back updates of pushes are submitted ahead of bulk work, and running reindexes pause
+ * between two pages as long as an update of another repository is held back or waits for a worker of the
+ * search engine.
+ */
+@Singleton
+@SuppressWarnings("UnstableApiUsage")
+public class IndexTaskDispatcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexTaskDispatcher.class);
+
+  /**
+   * If a task does not report back within this time, its ticket expires, so that a lost task can not block the lane.
+   */
+  private static final long TICKET_TIMEOUT_MINUTES = 30;
+
+  private final AdministrationContext administrationContext;
+  private final SearchEngine searchEngine;
+  private final IndexStatusStore indexStatusStore;
+  private final IndexConfiguration configuration;
+  private final Lane small;
+  private final Lane large;
+  private final Map<String, Ticket> inFlight = new ConcurrentHashMap<>();
+  private final List<Consumer<IndexerTask>> dropListeners = new CopyOnWriteArrayList<>();
+  private final AtomicLong sequence = new AtomicLong();
+  // notified whenever a running task has finished
+  private final Object drained = new Object();
+  private volatile boolean stopping;
+
+  enum Priority {
+    /**
+     * Updates for pushes, which should become searchable within seconds.
+     */
+    PUSH,
+    /**
+     * Startup checks, verifications and reindexes.
+     */
+    BULK
+  }
+
+  @Inject
+  public IndexTaskDispatcher(AdministrationContext administrationContext,
+                             SearchEngine searchEngine,
+                             IndexStatusStore indexStatusStore,
+                             IndexConfiguration configuration) {
+    this.administrationContext = administrationContext;
+    this.searchEngine = searchEngine;
+    this.indexStatusStore = indexStatusStore;
+    this.configuration = configuration;
+    this.small = new Lane("small", Integer.MAX_VALUE, Math.max(1, configuration.getSmallBulkTasks()));
+    int largeTasks = Math.max(1, configuration.getLargeTasks());
+    this.large = new Lane("large", largeTasks, largeTasks);
+  }
+
+  public void submit(Repository repository, IndexerTask task) {
+    Lane lane = lane(repository);
+    Priority priority = priority(repository, task);
+    Dispatch dispatch = new Dispatch(lane, repository, task, priority, sequence.incrementAndGet());
+    boolean drop;
+    synchronized (lane) {
+      drop = stopping;
+      if (!drop) {
+        expireTickets(lane);
+        if (!lane.hasCapacity(priority)) {
+          LOG.trace("hold back index task for repository {} in {} lane with priority {}", repository, lane.name, priority);
+          lane.waiting.add(dispatch);
+          return;
+        }
+        lane.acquire(priority);
+      }
+    }
+    if (drop) {
+      LOG.debug("drop index task for repository {}, because the index is shutting down", repository);
+      // the listeners are called outside of the lock of the lane
+      dropped(task);
+      return;
+    }
+    dispatch(dispatch);
+  }
+
+  /**
+   * Registers a listener, which is called with every task that is dropped on shutdown and will not report back,
+   * so that the submitter can release what it holds for the task.
+   */
+  void onDropped(Consumer<IndexerTask> listener) {
+    dropListeners.add(listener);
+  }
+
+  private void dropped(IndexerTask task) {
+    for (Consumer<IndexerTask> listener : dropListeners) {
+      listener.accept(task);
+    }
+  }
+
+  /**
+   * Tasks for repositories with a complete index are updates for pushes, all others rebuild the index anyway.
+   */
+  @VisibleForTesting
+  Priority priority(Repository repository, IndexerTask task) {
+    if (task.isStartup() || task.isVerify()) {
+      return Priority.BULK;
+    }
+    boolean complete = indexStatusStore.get(repository)
+      .filter(status -> status.getVersion() == IndexedChangeset.VERSION)
+      .filter(status -> !status.isEmpty() && !status.isReindexing())
+      .isPresent();
+    return complete ? Priority.PUSH : Priority.BULK;
+  }
+
+  /**
+   * Returns {@code true}, if an update for a push to another repository is held back in the lane of the repository
+   * or was submitted, but waits for a worker of the search engine. Reindexes should pause, until the update was
+   * started. A push to the repository itself is picked up by the reindex, so the reindex does not pause for it.
+   */
+  boolean shouldYield(Repository repository) {
+    Lane lane = lane(repository);
+    synchronized (lane) {
+      boolean heldBack = lane.waiting.stream()
+        .anyMatch(dispatch -> dispatch.priority == Priority.PUSH && !dispatch.repository.getId().equals(repository.getId()));
+      if (heldBack) {
+        return true;
+      }
+    }
+    return inFlight.values()
+      .stream()
+      .anyMatch(ticket -> ticket.priority == Priority.PUSH && !ticket.started && !ticket.repositoryId.equals(repository.getId()));
+  }
+
+  /**
+   * Returns {@code true}, once the dispatcher is shutting down. Running index tasks should stop before their next document.
+   */
+  boolean isStopping() {
+    return stopping;
+  }
+
+  @VisibleForTesting
+  boolean isLarge(Repository repository) {
+    long threshold = configuration.getLargeRepositoryThreshold();
+    return threshold > 0 && indexStatusStore.get(repository)
+      .map(IndexStatus::getCommitCount)
+      .filter(count -> count >= threshold)
+      .isPresent();
+  }
+
+  private Lane lane(Repository repository) {
+    return isLarge(repository) ? large : small;
+  }
+
+  private void dispatch(Dispatch dispatch) {
+    String ticket = UUID.randomUUID().toString();
+    inFlight.put(ticket, new Ticket(dispatch.lane, dispatch.task, dispatch.priority, dispatch.repository.getId(), Instant.now()));
+    dispatch.task.setTicket(ticket);
+    LOG.trace("submit index task for repository {} in {} lane", dispatch.repository, dispatch.lane.name);
+    try {
+      administrationContext.runAsAdmin(() -> searchEngine.forType(IndexedChangeset.class)
+        .forResource(dispatch.repository)
+        .update(dispatch.task));
+    } catch (RuntimeException e) {
+      finished(ticket);
+      throw e;
+    }
+  }
+
+  /**
+   * Releases the tickets of the lane, whose tasks have not reported back in time.
+   */
+  private void expireTickets(Lane lane) {
+    Instant expired = Instant.now().minus(TICKET_TIMEOUT_MINUTES, ChronoUnit.MINUTES);
+    Iterator<Ticket> tickets = inFlight.values().iterator();
+    while (tickets.hasNext()) {
+      Ticket ticket = tickets.next();
+      if (ticket.lane == lane && ticket.dispatchedAt.isBefore(expired)) {
+        LOG.warn("index task of the {} lane did not finish within {} minutes, release its ticket", lane.name, TICKET_TIMEOUT_MINUTES);
+        tickets.remove();
+        lane.release(ticket.priority);
+      }
+    }
+  }
+
+  /**
+   * Called by an index task, once the search engine has started it.
+   */
+  void started(String ticket) {
+    if (ticket == null) {
+      return;
+    }
+    Ticket started = inFlight.get(ticket);
+    if (started != null) {
+      started.started = true;
+    }
+  }
+
+  /**
+   * Called by an index task, once it has finished. Submits the next held back task of the lane.
+   */
+  void finished(String ticket) {
+    if (ticket == null) {
+      return;
+    }
+    Ticket released = inFlight.remove(ticket);
+    if (released == null) {
+      return;
+    }
+    Lane lane = released.lane;
+    Dispatch next;
+    synchronized (lane) {
+      lane.release(released.priority);
+      next = lane.next();
+    }
+    synchronized (drained) {
+      drained.notifyAll();
+    }
+    if (next != null) {
+      dispatch(next);
+    }
+  }
+
+  /**
+   * Drops the held back tasks and waits until the running index tasks have stopped or the shutdown timeout
+   * has passed. Tasks which were submitted to the search engine, but have not been started yet, are not waited for,
+   * they skip their work once they are started. Dropped and stopped tasks are picked up by the startup check
+   * of the next start, because their updates are still pending or their reindex has a checkpoint.
+   */
+  void shutdown() {
+    stopping = true;
+    List<IndexerTask> dropped = new ArrayList<>();
+    for (Lane lane : new Lane[]{small, large}) {
+      synchronized (lane) {
+        lane.waiting.forEach(dispatch -> dropped.add(dispatch.task));
+        lane.waiting.clear();
+      }
+    }
+    dropped.forEach(this::dropped);
+    releaseQueuedTickets();
+    if (!awaitRunningTasks(TimeUnit.SECONDS.toMillis(configuration.getShutdownTimeout()))) {
+      LOG.warn("{} index tasks did not stop within {} seconds", runningTasks(), configuration.getShutdownTimeout());
+    }
+  }
+
+  /**
+   * Releases the tickets of the tasks, which are still queued by the search engine. The search engine may not
+   * start them before it is shut down, so they are treated as dropped.
+   */
+  private void releaseQueuedTickets() {
+    Iterator<Ticket> tickets = inFlight.values().iterator();
+    while (tickets.hasNext()) {
+      Ticket ticket = tickets.next();
+      if (!ticket.started) {
+        tickets.remove();
+        synchronized (ticket.lane) {
+          ticket.lane.release(ticket.priority);
+        }
+        dropped(ticket.task);
+      }
+    }
+  }
+
+  private long runningTasks() {
+    return inFlight.values().stream().filter(ticket -> ticket.started).count();
+  }
+
+  @VisibleForTesting
+  boolean awaitRunningTasks(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (drained) {
+      while (runningTasks() > 0) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return false;
+        }
+        try {
+          drained.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static class Lane {
+
+    private final String name;
+    private final int limit;
+    private final int bulkLimit;
+    // guarded by this
+    private final PriorityQueue<Dispatch> waiting = new PriorityQueue<>();
+    // guarded by this
+    private int unfinished;
+    // guarded by this
+    private int unfinishedBulk;
+
+    private Lane(String name, int limit, int bulkLimit) {
+      this.name = name;
+      this.limit = limit;
+      this.bulkLimit = bulkLimit;
+    }
+
+    private boolean hasCapacity(Priority priority) {
+      return unfinished < limit && (priority != Priority.BULK || unfinishedBulk < bulkLimit);
+    }
+
+    private void acquire(Priority priority) {
+      unfinished++;
+      if (priority == Priority.BULK) {
+        unfinishedBulk++;
+      }
+    }
+
+    private void release(Priority priority) {
+      unfinished--;
+      if (priority == Priority.BULK) {
+        unfinishedBulk--;
+      }
+    }
+
+    /**
+     * Removes the next held back dispatch, which fits into the lane, and acquires its capacity.
+     * Pushes are ordered before bulk tasks, so a bulk task is only next, if no push is held back.
+     */
+    private Dispatch next() {
+      Dispatch next = waiting.peek();
+      if (next == null || !hasCapacity(next.priority)) {
+        return null;
+      }
+      waiting.poll();
+      acquire(next.priority);
+      return next;
+    }
+  }
+
+  private static class Ticket {
+
+    private final Lane lane;
+    private final IndexerTask task;
+    private final Priority priority;
+    private final String repositoryId;
+    private final Instant dispatchedAt;
+    private volatile boolean started;
+
+    private Ticket(Lane lane, IndexerTask task, Priority priority, String repositoryId, Instant dispatchedAt) {
+      this.lane = lane;
+      this.task = task;
+      this.priority = priority;
+      this.repositoryId = repositoryId;
+      this.dispatchedAt = dispatchedAt;
+    }
+  }
+
+  /**
+   * Held back dispatch of a task, ordered by priority and then by the order of submission.
+   */
+  @SuppressWarnings("java:S1210") // only compared by the queue of the lane
+  private static class Dispatch implements Comparable<Dispatch> {
+
+    private final Lane lane;
+    private final Repository repository;
+    private final IndexerTask task;
+    private final Priority priority;
+    private final long sequence;
+
+    private Dispatch(Lane lane, Repository repository, IndexerTask task, Priority priority, long sequence) {
+      this.lane = lane;
+      this.repository = repository;
+      this.task = task;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Dispatch other) {
+      int result = priority.compareTo(other.priority);
+      return result != 0 ? result : Long.compare(sequence, other.sequence);
+    }
+  }
+}
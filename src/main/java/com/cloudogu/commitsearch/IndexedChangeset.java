@@ -16,17 +16,23 @@
 
 package com.cloudogu.commitsearch;
 
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.Setter;
 import sonia.scm.repository.Changeset;
 import sonia.scm.search.Indexed;
 import sonia.scm.search.IndexedType;
 
+import java.io.Serializable;
+
 @AllArgsConstructor
 @Getter
 @IndexedType(value = "commit", repositoryScoped = true, namespaceScoped = true)
 @SuppressWarnings({"UnstableApiUsage", "java:S2160"})
-public class IndexedChangeset {
+public class IndexedChangeset implements Serializable {
+  private static final long serialVersionUID = 1L;
+
   static final int VERSION = 2;
 
   IndexedChangeset(Changeset changeset) {
@@ -35,7 +41,9 @@ public class IndexedChangeset {
       String.valueOf(changeset.getAuthor()),
       changeset.getDate(),
       changeset.getDescription(),
-      String.join(", ", changeset.getParents())
+      String.join(", ", changeset.getParents()),
+      null,
+      null
     );
   }
 
@@ -49,4 +57,16 @@ public class IndexedChangeset {
   private String description;
   @Indexed(name = "parent", type = Indexed.Type.TOKENIZED)
   private String parents;
+  /**
+   * Paths changed by the changeset, one per line. Only filled for repositories with enabled changed paths.
+   */
+  @Setter(AccessLevel.PACKAGE)
+  @Indexed(name = "path", type = Indexed.Type.TOKENIZED, analyzer = Indexed.Analyzer.PATH)
+  private String paths;
+  /**
+   * Generation of the shadow reindex, which has written the document.
+   */
+  @Setter(AccessLevel.PACKAGE)
+  @Indexed(type = Indexed.Type.SEARCHABLE)
+  private String generation;
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.annotations.VisibleForTesting;
+import sonia.scm.repository.Repository;
+import sonia.scm.search.Hit;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the ids of the documents of a repository, which match a query, in pages. The search engine returns its hits
+ * in no particular order, so the ids are not paged by offset but by key range: a range with more matches than fit
+ * into a page is split at the median id of the page and both halves are read on their own. Every id is passed on
+ * exactly once and at most one page of ids is held in memory.
+ */
+@SuppressWarnings("UnstableApiUsage")
+class IndexedIds {
+
+  @VisibleForTesting
+  static final int PAGE_SIZE = 1000;
+
+  private final SearchEngine searchEngine;
+  private final Repository repository;
+
+  IndexedIds(SearchEngine searchEngine, Repository repository) {
+    this.searchEngine = searchEngine;
+    this.repository = repository;
+  }
+
+  /**
+   * Passes the ids of all documents of the repository, which match the given query, to the consumer
+   * one page at a time.
+   */
+  void forEachPage(String query, Consumer<List<String>> consumer) {
+    Deque<Range> ranges = new ArrayDeque<>();
+    ranges.push(new Range(null, null));
+    while (!ranges.isEmpty()) {
+      Range range = ranges.pop();
+      QueryResult result = searchEngine.forType(IndexedChangeset.class)
+        .search()
+        .filter(Repository.class, repository.getId())
+        .limit(PAGE_SIZE)
+        .execute(range.restrict(query));
+      List<String> ids = ids(result);
+      if (result.getTotalHits() <= PAGE_SIZE || ids.isEmpty()) {
+        if (!ids.isEmpty()) {
+          consumer.accept(ids);
+        }
+      } else {
+        Collections.sort(ids);
+        String median = ids.get(ids.size() / 2);
+        // the lower half is read first
+        ranges.push(new Range(median, range.upper));
+        ranges.push(new Range(range.lower, median));
+      }
+    }
+  }
+
+  private static List<String> ids(QueryResult result) {
+    List<String> ids = new ArrayList<>();
+    for (Hit hit : result.getHits()) {
+      Hit.Field field = hit.getFields().get("id");
+      if (field instanceof Hit.ValueField) {
+        ids.add(String.valueOf(((Hit.ValueField) field).getValue()));
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Range of ids, which excludes its lower and includes its upper bound. A {@code null} bound is open.
+   */
+  private static final class Range {
+
+    private final String lower;
+    private final String upper;
+
+    private Range(String lower, String upper) {
+      this.lower = lower;
+      this.upper = upper;
+    }
+
+    private String restrict(String query) {
+      if (lower == null && upper == null) {
+        return query;
+      }
+      return "+(" + query + ") +id:{" + bound(lower) + " TO " + bound(upper) + "]";
+    }
+
+    private static String bound(String id) {
+      return id != null ? "\"" + id + "\"" : "*";
+    }
+  }
+}
@@ -26,6 +26,10 @@ import sonia.scm.repository.api.RepositoryService;
 import sonia.scm.search.Id;
 import sonia.scm.search.Index;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
 @SuppressWarnings("UnstableApiUsage")
 class Indexer {
 
@@ -33,43 +37,147 @@ class Indexer {
 
   private final Index<IndexedChangeset> index;
   private final Repository repository;
+  private final IndexMetrics metrics;
+  // the permission is the same for every changeset of the repository, so we build it only once
+  private final String permission;
+  // null, if the changed paths are not indexed for the repository
+  private final ChangedPaths changedPaths;
+  private final boolean changedPathsEnabled;
+  private String generation;
+  private BooleanSupplier stopping = () -> false;
+
+  public Indexer(Index<IndexedChangeset> index,
+                 RepositoryService repositoryService,
+                 IndexConfiguration configuration,
+                 IndexMetrics metrics) {
+    this(index, repositoryService, configuration, metrics, false);
+  }
 
-  public Indexer(Index<IndexedChangeset> index, RepositoryService repositoryService) {
+  /**
+   * Creates an indexer, which indexes the changed paths of the changesets, if {@code changedPaths} is {@code true}
+   * and the repository supports it.
+   */
+  public Indexer(Index<IndexedChangeset> index,
+                 RepositoryService repositoryService,
+                 IndexConfiguration configuration,
+                 IndexMetrics metrics,
+                 boolean changedPaths) {
     this.index = index;
     this.repository = repositoryService.getRepository();
+    this.metrics = metrics;
+    this.permission = RepositoryPermissions.read(repository).asShiroString();
+    this.changedPathsEnabled = changedPaths;
+    if (changedPaths && ChangedPaths.isSupported(repositoryService)) {
+      this.changedPaths = new ChangedPaths(repositoryService, configuration.getChangedPathsLimit());
+    } else {
+      this.changedPaths = null;
+    }
   }
 
-  void store(Iterable<Changeset> changesets) {
-    if (Iterables.isEmpty(changesets)) {
-      return;
+  /**
+   * Stores the changesets and returns the number of stored changesets.
+   */
+  int store(Iterable<Changeset> changesets) {
+    int count = 0;
+    for (Changeset changeset : changesets) {
+      write(new IndexedChangeset(changeset));
+      count++;
     }
+    return count;
+  }
 
+  /**
+   * Stores the documents and returns the number of stored documents.
+   */
+  int storeDocuments(Iterable<IndexedChangeset> documents) {
+    int count = 0;
+    for (IndexedChangeset document : documents) {
+      write(document);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Maps the changesets to documents. The changed paths are read from the repository, if they are indexed,
+   * so the documents are mapped by the thread which reads the changesets and not by the one writing them.
+   */
+  List<IndexedChangeset> documents(List<Changeset> changesets) {
+    List<IndexedChangeset> documents = new ArrayList<>(changesets.size());
     for (Changeset changeset : changesets) {
-      LOG.trace("store {} to index", changeset);
-      IndexedChangeset indexedChangeset = new IndexedChangeset(changeset);
-      index.store(id(indexedChangeset.getId()), permission(), indexedChangeset);
+      IndexedChangeset document = new IndexedChangeset(changeset);
+      if (changedPaths != null) {
+        document.setPaths(changedPaths.read(document.getId()));
+      }
+      documents.add(document);
+    }
+    return documents;
+  }
+
+  /**
+   * Writes a single document. The index has no bulk store operation, every document is buffered by the index
+   * writer until the index task is finished anyway.
+   */
+  private void write(IndexedChangeset document) {
+    checkStopping();
+    LOG.trace("store changeset {} to index", document.getId());
+    if (changedPaths != null && document.getPaths() == null) {
+      document.setPaths(changedPaths.read(document.getId()));
+    }
+    if (generation != null) {
+      document.setGeneration(generation);
+    }
+    index.store(id(document.getId()), permission, document);
+    metrics.indexed(1);
+  }
+
+  /**
+   * Stops the write before the next document, if the plugin is shutting down. The documents written so far
+   * are kept, they are written again by the reindex or update, which is resumed on the next start.
+   */
+  private void checkStopping() {
+    if (stopping.getAsBoolean()) {
+      throw new IndexingPausedException("index is shutting down");
     }
   }
 
-  void delete(Iterable<Changeset> changesets) {
-    if (Iterables.isEmpty(changesets)) {
+  /**
+   * Returns {@code true} if the changed paths are enabled for the repository.
+   */
+  boolean isChangedPaths() {
+    return changedPathsEnabled;
+  }
+
+  /**
+   * Marks all documents written from now on with the given generation of a shadow reindex.
+   */
+  void setGeneration(String generation) {
+    this.generation = generation;
+  }
+
+  void setStopping(BooleanSupplier stopping) {
+    this.stopping = stopping;
+  }
+
+  void delete(Iterable<String> ids) {
+    if (Iterables.isEmpty(ids)) {
       return;
     }
+    // the index can only delete by id, large removals are turned into a reindex by the caller
     Index.Deleter<IndexedChangeset> deleter = index.delete();
-    for (Changeset changeset : changesets) {
-      LOG.trace("delete {} from index", changeset);
-      deleter.byId(id(changeset.getId()));
+    int count = 0;
+    for (String id : ids) {
+      LOG.trace("delete changeset {} from index", id);
+      deleter.byId(id(id));
+      count++;
     }
+    metrics.deleted(count);
   }
 
   void deleteAll() {
     index.delete().by(Repository.class, repository).execute();
   }
 
-  private String permission() {
-    return RepositoryPermissions.read(repository).asShiroString();
-  }
-
   private Id<IndexedChangeset> id(String id) {
     return Id.of(IndexedChangeset.class, id).and(Repository.class, repository);
   }
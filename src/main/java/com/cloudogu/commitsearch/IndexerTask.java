@@ -17,23 +17,55 @@
 package com.cloudogu.commitsearch;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import sonia.scm.repository.Repository;
 import sonia.scm.search.Index;
 import sonia.scm.search.SerializableIndexTask;
 
 import jakarta.inject.Inject;
+import java.time.Instant;
+import java.util.Optional;
 
 @SuppressWarnings("UnstableApiUsage")
 public class IndexerTask implements SerializableIndexTask<IndexedChangeset> {
 
+  private static final Logger LOG = LoggerFactory.getLogger(IndexerTask.class);
+
   private final Repository repository;
   private final UpdatedChangesets changesets;
+  private final boolean startup;
+  private final boolean verify;
+  private final long submittedAt = System.currentTimeMillis();
+  private String ticket;
 
   private IndexSyncer syncer;
+  private StartupIndexScheduler startupIndexScheduler;
+  private IndexStatusStore indexStatusStore;
+  private IndexMetrics metrics;
+  private IndexTaskDispatcher dispatcher;
+  private ConsistencySweep consistencySweep;
 
   public IndexerTask(Repository repository, UpdatedChangesets changesets) {
+    this(repository, changesets, false);
+  }
+
+  IndexerTask(Repository repository, UpdatedChangesets changesets, boolean startup) {
+    this(repository, changesets, startup, false);
+  }
+
+  private IndexerTask(Repository repository, UpdatedChangesets changesets, boolean startup, boolean verify) {
     this.repository = repository;
     this.changesets = changesets;
+    this.startup = startup;
+    this.verify = verify;
+  }
+
+  /**
+   * Creates a task which verifies the index of the repository and repairs it.
+   */
+  static IndexerTask verify(Repository repository) {
+    return new IndexerTask(repository, null, false, true);
   }
 
   @Inject
@@ -41,13 +73,107 @@ public class IndexerTask implements SerializableIndexTask<IndexedChangeset> {
     this.syncer = syncer;
   }
 
-  @VisibleForTesting
+  @Inject
+  public void setStartupIndexScheduler(StartupIndexScheduler startupIndexScheduler) {
+    this.startupIndexScheduler = startupIndexScheduler;
+  }
+
+  @Inject
+  public void setIndexStatusStore(IndexStatusStore indexStatusStore) {
+    this.indexStatusStore = indexStatusStore;
+  }
+
+  @Inject
+  public void setMetrics(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Inject
+  public void setDispatcher(IndexTaskDispatcher dispatcher) {
+    this.dispatcher = dispatcher;
+  }
+
+  @Inject
+  public void setConsistencySweep(ConsistencySweep consistencySweep) {
+    this.consistencySweep = consistencySweep;
+  }
+
+  String getTicket() {
+    return ticket;
+  }
+
+  void setTicket(String ticket) {
+    this.ticket = ticket;
+  }
+
+  boolean isStartup() {
+    return startup;
+  }
+
+  boolean isVerify() {
+    return verify;
+  }
+
   Repository getRepository() {
     return repository;
   }
 
+  @VisibleForTesting
+  UpdatedChangesets getChangesets() {
+    return changesets;
+  }
+
   @Override
   public void update(Index<IndexedChangeset> index) {
-    syncer.ensureIndexIsUpToDate(index, repository, changesets);
+    metrics.taskStarted(submittedAt);
+    dispatcher.started(ticket);
+    try {
+      if (dispatcher.isStopping()) {
+        LOG.debug("skip index task for repository {}, because the index is shutting down", repository);
+        return;
+      }
+      Optional<IndexStatus> status = indexStatusStore.get(repository);
+      if (status.filter(s -> s.isQuarantined(Instant.now())).isPresent()) {
+        LOG.debug("skip index task for quarantined repository {} until {}", repository, status.get().getNextRetry());
+        metrics.quarantineSkipped();
+        return;
+      }
+      if (verify) {
+        syncer.verify(index, repository);
+      } else {
+        // the changesets of tasks skipped during the quarantine are lost, so the retry catches up instead
+        boolean retry = status.filter(s -> s.getFailures() > 0).isPresent();
+        // every update requested before this task is covered, once the index is up to date
+        int pending = status.map(IndexStatus::getPendingUpdates).orElse(0);
+        syncer.ensureIndexIsUpToDate(index, repository, retry ? null : changesets);
+        indexStatusStore.updatesProcessed(repository, pending);
+      }
+      indexStatusStore.succeeded(repository);
+    } catch (IndexingPausedException e) {
+      if (dispatcher.isStopping()) {
+        // the update stays pending, so the startup check of the next start resumes it from the previous checkpoint
+        LOG.info("stopped index task for repository {}, because the index is shutting down", repository);
+      } else {
+        LOG.debug("index task for repository {} was paused: {}", repository, e.getMessage());
+        if (e.getCheckpoint() != null) {
+          // the written pages are committed with the end of this task, the continuation resumes after them
+          indexStatusStore.checkpoint(repository, e.getCheckpoint());
+        }
+        // the continuation resumes from the checkpoint and reports the processed update
+        dispatcher.submit(repository, new IndexerTask(repository, null, startup));
+      }
+    } catch (RuntimeException e) {
+      indexStatusStore.failed(repository, e.toString());
+      metrics.taskFailed();
+      throw e;
+    } finally {
+      dispatcher.finished(ticket);
+      if (startup) {
+        startupIndexScheduler.finished(repository);
+      }
+      if (verify) {
+        consistencySweep.finished(repository);
+      }
+    }
   }
 }
@@ -18,6 +18,7 @@ package com.cloudogu.commitsearch;
 
 import lombok.Getter;
 import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.search.SearchEngine;
 
 @Getter
 class IndexingContext {
@@ -25,11 +26,28 @@ class IndexingContext {
   private final RepositoryService repositoryService;
   private final IndexStatusStore indexStatusStore;
   private final Indexer indexer;
+  private final IndexConfiguration configuration;
+  private final IndexMetrics metrics;
+  private final IndexMigration migration;
+  private final SearchEngine searchEngine;
+  private final IndexTaskDispatcher dispatcher;
 
-  IndexingContext(RepositoryService repositoryService, IndexStatusStore indexStatusStore, Indexer indexer) {
+  IndexingContext(RepositoryService repositoryService,
+                  IndexStatusStore indexStatusStore,
+                  Indexer indexer,
+                  IndexConfiguration configuration,
+                  IndexMetrics metrics,
+                  IndexMigration migration,
+                  SearchEngine searchEngine,
+                  IndexTaskDispatcher dispatcher) {
     this.repositoryService = repositoryService;
     this.indexStatusStore = indexStatusStore;
     this.indexer = indexer;
+    this.configuration = configuration;
+    this.metrics = metrics;
+    this.migration = migration;
+    this.searchEngine = searchEngine;
+    this.dispatcher = dispatcher;
   }
 
 
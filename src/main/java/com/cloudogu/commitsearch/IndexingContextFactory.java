@@ -17,20 +17,36 @@
 package com.cloudogu.commitsearch;
 
 import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.search.SearchEngine;
 
 import jakarta.inject.Inject;
 
 public class IndexingContextFactory {
 
   private final IndexStatusStore indexStatusStore;
+  private final IndexConfiguration configuration;
+  private final IndexMetrics metrics;
+  private final IndexMigration migration;
+  private final SearchEngine searchEngine;
+  private final IndexTaskDispatcher dispatcher;
 
   @Inject
-  public IndexingContextFactory(IndexStatusStore indexStatusStore) {
+  public IndexingContextFactory(IndexStatusStore indexStatusStore,
+                                IndexConfiguration configuration,
+                                IndexMetrics metrics,
+                                IndexMigration migration,
+                                SearchEngine searchEngine,
+                                IndexTaskDispatcher dispatcher) {
     this.indexStatusStore = indexStatusStore;
+    this.configuration = configuration;
+    this.metrics = metrics;
+    this.migration = migration;
+    this.searchEngine = searchEngine;
+    this.dispatcher = dispatcher;
   }
 
   public IndexingContext create(RepositoryService repositoryService, Indexer indexer) {
-    return new IndexingContext(repositoryService, indexStatusStore, indexer);
+    return new IndexingContext(repositoryService, indexStatusStore, indexer, configuration, metrics, migration, searchEngine, dispatcher);
   }
 
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+/**
+ * Thrown by a reindex between two pages, if it has to give way to other work or has written its share of pages.
+ * The index commits the documents of a task only when the task ends, so the checkpoint of the written pages is
+ * carried by the exception and stored only with the submission of the continuation. A crash before leaves the
+ * previous checkpoint, from which the written pages are read again.
+ */
+class IndexingPausedException extends RuntimeException {
+
+  @SuppressWarnings("java:S1948") // the exception is never serialized
+  private final transient ReindexCheckpoint checkpoint;
+
+  IndexingPausedException(String message) {
+    this(message, null);
+  }
+
+  IndexingPausedException(String message, ReindexCheckpoint checkpoint) {
+    super(message);
+    this.checkpoint = checkpoint;
+  }
+
+  /**
+   * Returns the checkpoint after the last written page, or {@code null} if the task was stopped
+   * outside a paged reindex.
+   */
+  ReindexCheckpoint getCheckpoint() {
+    return checkpoint;
+  }
+}
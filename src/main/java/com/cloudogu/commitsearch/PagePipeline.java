@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads pages of changesets on a separate thread, while the calling thread writes them to the index.
+ * Reader and writer are connected by a bounded queue, so the reader blocks as soon as the writer falls behind
+ * and at most {@code capacity} pages are held in memory.
+ * <p>
+ * The repository service is not thread safe, so it must only be used by the producer. The consumer only writes
+ * the pages to the index. The reader is never interrupted, because an interrupt closes the channels of the
+ * underlying repository. Instead it is stopped cooperatively before the next page and joined before
+ * {@link #run(Consumer, Consumer)} returns, so the caller can use the repository service again afterwards.
+ *
+ * @param <T> type of the pages
+ */
+class PagePipeline<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PagePipeline.class);
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("CommitSearchHistoryReader-%d")
+    .setDaemon(true)
+    .build();
+
+  private static final Object END = new Object();
+  // interval in which a blocked reader checks whether it was stopped
+  private static final long STOP_CHECK_MILLIS = 100;
+
+  private final int capacity;
+  private final IndexMetrics metrics;
+
+  PagePipeline(int capacity, IndexMetrics metrics) {
+    this.capacity = capacity;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Passes every page of the producer to the consumer. The consumer is called on the calling thread.
+   * If the capacity is zero or less, the producer is called on the calling thread, too.
+   *
+   * @param producer reads the pages and passes them to the given sink
+   * @param consumer writes a single page
+   */
+  void run(Consumer<Consumer<T>> producer, Consumer<T> consumer) {
+    if (capacity <= 0) {
+      producer.accept(consumer);
+      return;
+    }
+
+    BlockingQueue<Object> queue = new ArrayBlockingQueue<>(capacity);
+    Reader reader = new Reader(producer, queue);
+    Thread thread = THREAD_FACTORY.newThread(withSubject(reader));
+    thread.start();
+    try {
+      consume(queue, consumer);
+    } catch (RuntimeException | Error e) {
+      LOG.trace("writer failed, stop reader", e);
+      reader.stop();
+      throw e;
+    } finally {
+      // the reader finishes the page it is reading, before it notices the stop
+      Uninterruptibles.joinUninterruptibly(thread);
+      discard(queue);
+    }
+    if (reader.failure != null) {
+      Throwables.throwIfUnchecked(reader.failure);
+      throw new IllegalStateException("failed to read pages", reader.failure);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void consume(BlockingQueue<Object> queue, Consumer<T> consumer) {
+    while (true) {
+      Object page = take(queue);
+      if (page == END) {
+        return;
+      }
+      metrics.pageDequeued();
+      consumer.accept((T) page);
+    }
+  }
+
+  private static Object take(BlockingQueue<Object> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while waiting for the next page", e);
+    }
+  }
+
+  private void discard(BlockingQueue<Object> queue) {
+    for (Object page = queue.poll(); page != null; page = queue.poll()) {
+      if (page != END) {
+        metrics.pageDequeued();
+      }
+    }
+  }
+
+  /**
+   * The history is read with the permissions of the indexing thread.
+   */
+  private static Runnable withSubject(Runnable runnable) {
+    Subject subject = ThreadContext.getSubject();
+    return subject != null ? subject.associateWith(runnable) : runnable;
+  }
+
+  private class Reader implements Runnable {
+
+    private final Consumer<Consumer<T>> producer;
+    private final BlockingQueue<Object> queue;
+    private volatile Throwable failure;
+    private volatile boolean stopped;
+
+    private Reader(Consumer<Consumer<T>> producer, BlockingQueue<Object> queue) {
+      this.producer = producer;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      try {
+        producer.accept(this::put);
+      } catch (Stopped e) {
+        LOG.trace("reader stopped");
+      } catch (RuntimeException | Error e) {
+        failure = e;
+      } finally {
+        end();
+      }
+    }
+
+    private void stop() {
+      stopped = true;
+    }
+
+    private void put(T page) {
+      metrics.pageQueued();
+      if (!offer(page)) {
+        metrics.pageDequeued();
+        throw new Stopped();
+      }
+    }
+
+    private void end() {
+      // the writer is gone, if the reader was stopped, so nobody would take the end marker
+      offer(END);
+    }
+
+    /**
+     * Waits until the queue accepts the element and returns {@code false}, if the reader was stopped in the meantime.
+     */
+    private boolean offer(Object element) {
+      try {
+        while (!stopped) {
+          if (queue.offer(element, STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            return true;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return false;
+    }
+  }
+
+  private static class Stopped extends RuntimeException {
+  }
+}
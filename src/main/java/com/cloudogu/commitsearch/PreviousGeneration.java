@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import sonia.scm.repository.Repository;
+import sonia.scm.search.SearchEngine;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Finds the documents of a repository, which were not written by a shadow reindex.
+ * The search reads only committed documents, so the documents rewritten by the running index task are still found
+ * with their previous generation and have to be filtered by the caller.
+ */
+@SuppressWarnings("UnstableApiUsage")
+class PreviousGeneration {
+
+  private final IndexedIds indexedIds;
+
+  PreviousGeneration(SearchEngine searchEngine, Repository repository) {
+    this.indexedIds = new IndexedIds(searchEngine, repository);
+  }
+
+  /**
+   * Passes the ids of all documents of the repository with a generation other than the given one,
+   * including documents without any generation, to the consumer one page at a time.
+   */
+  void forEachPage(String generation, Consumer<List<String>> consumer) {
+    indexedIds.forEachPage("*:* -generation:\"" + generation + "\"", consumer);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the pushes to the same repository for a short window and submits them as one index task.
+ * The window starts with the first push and is not extended by further pushes, so a constant stream of pushes
+ * can not delay the index update forever.
+ */
+@Singleton
+public class PushCoalescer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PushCoalescer.class);
+
+  private final IndexTaskDispatcher dispatcher;
+  private final IndexStatusStore indexStatusStore;
+  private final IndexConfiguration configuration;
+  private final ScheduledExecutorService executor;
+
+  // guarded by this
+  private final Map<String, Pending> pending = new HashMap<>();
+
+  @Inject
+  public PushCoalescer(IndexTaskDispatcher dispatcher,
+                       IndexStatusStore indexStatusStore,
+                       IndexConfiguration configuration) {
+    this(dispatcher, indexStatusStore, configuration, createExecutor());
+  }
+
+  @VisibleForTesting
+  PushCoalescer(IndexTaskDispatcher dispatcher,
+                IndexStatusStore indexStatusStore,
+                IndexConfiguration configuration,
+                ScheduledExecutorService executor) {
+    this.dispatcher = dispatcher;
+    this.indexStatusStore = indexStatusStore;
+    this.configuration = configuration;
+    this.executor = executor;
+  }
+
+  private static ScheduledExecutorService createExecutor() {
+    return Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("CommitSearchPushCoalescer-%d").setDaemon(true).build()
+    );
+  }
+
+  public void submit(Repository repository, UpdatedChangesets changesets) {
+    long window = configuration.getPushCoalesceWindow();
+    if (window <= 0) {
+      indexStatusStore.updateRequested(repository);
+      submitTask(repository, changesets);
+      return;
+    }
+    synchronized (this) {
+      Pending existing = pending.get(repository.getId());
+      if (existing != null) {
+        LOG.trace("merge changesets of push to repository {} into pending index update", repository);
+        existing.changesets = merge(existing.changesets, changesets);
+        return;
+      }
+      pending.put(repository.getId(), new Pending(repository, changesets));
+    }
+    indexStatusStore.updateRequested(repository);
+    executor.schedule(() -> flush(repository.getId()), window, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A push without changesets lets the index task read all changes from the repository,
+   * which covers the changesets of the other pushes, too.
+   */
+  private static UpdatedChangesets merge(UpdatedChangesets pending, UpdatedChangesets next) {
+    if (pending == null || next == null) {
+      return null;
+    }
+    return pending.merge(next);
+  }
+
+  private void flush(String repositoryId) {
+    Pending flushed;
+    synchronized (this) {
+      flushed = pending.remove(repositoryId);
+    }
+    if (flushed != null) {
+      submitTask(flushed.repository, flushed.changesets);
+    }
+  }
+
+  private void submitTask(Repository repository, UpdatedChangesets changesets) {
+    dispatcher.submit(repository, new IndexerTask(repository, changesets));
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static class Pending {
+
+    private final Repository repository;
+    private UpdatedChangesets changesets;
+
+    private Pending(Repository repository, UpdatedChangesets changesets) {
+      this.repository = repository;
+      this.changesets = changesets;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import sonia.scm.xml.XmlInstantAdapter;
+
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Progress of a running reindex, which is used to resume the reindex after an interruption.
+ */
+@Data
+@NoArgsConstructor
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ReindexCheckpoint {
+
+  /**
+   * Latest revision of the repository at the time the reindex was started.
+   */
+  private String revision;
+  /**
+   * Heads of the branches at the time the reindex was started. The history is walked from these heads, so that
+   * changesets pushed in the meantime neither shift the pages nor are recorded as indexed before they are read.
+   * {@code null} if the repository does not support branches or the reindex was started by a previous version.
+   */
+  private Map<String, String> heads;
+  /**
+   * Default branch at the time the reindex was started, which is walked before the other branches.
+   * {@code null} if the repository does not support branches or the reindex was started by a previous version.
+   */
+  private String defaultBranch;
+  @XmlJavaTypeAdapter(XmlInstantAdapter.class)
+  private Instant startedAt;
+  /**
+   * Branch of the next page, {@code null} if the repository does not support branches.
+   */
+  private String branch;
+  /**
+   * Changeset from which the walk of the branch continues, {@code null} for the head of the branch.
+   */
+  private String start;
+  /**
+   * Offset of the next page within the walk of the start changeset.
+   */
+  private int offset;
+  /**
+   * Number of changesets stored so far.
+   */
+  private long stored;
+  /**
+   * {@code true} if the documents are rewritten in place by a rolling upgrade instead of a reindex of a cleared index.
+   */
+  private boolean upgrade;
+  /**
+   * Generation of the documents written by a shadow reindex, {@code null} if the index was cleared instead.
+   */
+  private String generation;
+
+  ReindexCheckpoint(String revision, Instant startedAt) {
+    this.revision = revision;
+    this.startedAt = startedAt;
+  }
+
+  void advance(String branch, String start, int offset) {
+    this.branch = branch;
+    this.start = start;
+    this.offset = offset;
+  }
+
+  void addStored(int count) {
+    this.stored += count;
+  }
+
+  ReindexCheckpoint copy() {
+    ReindexCheckpoint copy = new ReindexCheckpoint(revision, startedAt);
+    copy.advance(branch, start, offset);
+    copy.stored = stored;
+    copy.upgrade = upgrade;
+    copy.generation = generation;
+    copy.heads = heads != null ? new HashMap<>(heads) : null;
+    copy.defaultBranch = defaultBranch;
+    return copy;
+  }
+}
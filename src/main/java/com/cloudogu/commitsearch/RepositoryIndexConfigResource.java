@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryPermissions;
+import sonia.scm.web.VndMediaType;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import static sonia.scm.ContextEntry.ContextBuilder.entity;
+import static sonia.scm.NotFoundException.notFound;
+
+@Path(RepositoryIndexConfigResource.PATH)
+public class RepositoryIndexConfigResource {
+
+  static final String PATH = "v2/commit-search/config";
+
+  private static final Logger LOG = LoggerFactory.getLogger(RepositoryIndexConfigResource.class);
+
+  private final RepositoryManager repositoryManager;
+  private final RepositoryIndexConfigStore configStore;
+  private final IndexTaskDispatcher dispatcher;
+
+  @Inject
+  public RepositoryIndexConfigResource(RepositoryManager repositoryManager,
+                                       RepositoryIndexConfigStore configStore,
+                                       IndexTaskDispatcher dispatcher) {
+    this.repositoryManager = repositoryManager;
+    this.configStore = configStore;
+    this.dispatcher = dispatcher;
+  }
+
+  @GET
+  @Path("{namespace}/{name}")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(
+    summary = "Commit search settings of repository",
+    description = "Returns the commit search settings of the repository.",
+    tags = "Commit Search",
+    operationId = "commit_search_get_repository_config"
+  )
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = RepositoryIndexConfig.class))
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"repository:read\" privilege")
+  @ApiResponse(
+    responseCode = "404",
+    description = "not found, no repository with the specified namespace and name available",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public RepositoryIndexConfig get(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+    Repository repository = repository(namespace, name);
+    RepositoryPermissions.read(repository).check();
+    return configStore.get(repository);
+  }
+
+  @PUT
+  @Path("{namespace}/{name}")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Operation(
+    summary = "Update commit search settings of repository",
+    description = "Stores the commit search settings of the repository. If the changed paths were enabled or disabled, "
+      + "the documents of the repository are rewritten in the background.",
+    tags = "Commit Search",
+    operationId = "commit_search_set_repository_config"
+  )
+  @ApiResponse(responseCode = "204", description = "update success")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the \"repository:modify\" privilege")
+  @ApiResponse(
+    responseCode = "404",
+    description = "not found, no repository with the specified namespace and name available",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(mediaType = VndMediaType.ERROR_TYPE, schema = @Schema(implementation = ErrorDto.class))
+  )
+  public Response set(@PathParam("namespace") String namespace, @PathParam("name") String name, RepositoryIndexConfig config) {
+    Repository repository = repository(namespace, name);
+    RepositoryPermissions.modify(repository).check();
+    boolean changed = configStore.isChangedPaths(repository) != config.isChangedPaths();
+    configStore.set(repository, config);
+    if (changed) {
+      LOG.info("changed paths of repository {} were {}, rewrite documents", repository, config.isChangedPaths() ? "enabled" : "disabled");
+      // the task detects the changed setting and rewrites the documents
+      dispatcher.submit(repository, new IndexerTask(repository, null));
+    }
+    return Response.noContent().build();
+  }
+
+  private Repository repository(String namespace, String name) {
+    NamespaceAndName namespaceAndName = new NamespaceAndName(namespace, name);
+    Repository repository = repositoryManager.get(namespaceAndName);
+    if (repository == null) {
+      throw notFound(entity(namespaceAndName));
+    }
+    return repository;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import sonia.scm.repository.Repository;
+import sonia.scm.store.ConfigurationStore;
+import sonia.scm.store.ConfigurationStoreFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+@Singleton
+public class RepositoryIndexConfigStore {
+
+  private static final String STORE_NAME = "commit-search-config";
+
+  private final ConfigurationStoreFactory storeFactory;
+
+  @Inject
+  public RepositoryIndexConfigStore(ConfigurationStoreFactory storeFactory) {
+    this.storeFactory = storeFactory;
+  }
+
+  public RepositoryIndexConfig get(Repository repository) {
+    return store(repository).getOptional().orElseGet(RepositoryIndexConfig::new);
+  }
+
+  public void set(Repository repository, RepositoryIndexConfig config) {
+    store(repository).set(config);
+  }
+
+  /**
+   * Returns {@code true} if the changed paths of the changesets of the repository are indexed.
+   */
+  boolean isChangedPaths(Repository repository) {
+    return get(repository).isChangedPaths();
+  }
+
+  private ConfigurationStore<RepositoryIndexConfig> store(Repository repository) {
+    return storeFactory.withType(RepositoryIndexConfig.class).withName(STORE_NAME).forRepository(repository).build();
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Submits the startup index tasks of all repositories with a delay after startup and with a bounded
+ * number of unfinished tasks. Repositories which were never indexed are submitted first, followed by
+ * the repositories with the most recent index updates. Requested reindexes of many repositories are submitted
+ * through the same bounded window.
+ */
+@Singleton
+public class StartupIndexScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StartupIndexScheduler.class);
+
+  /**
+   * If a task does not report back within this time, the next one is submitted anyway,
+   * so that a lost task can not stop the whole sweep.
+   */
+  private static final long PERMIT_TIMEOUT_MINUTES = 10;
+
+  private final IndexTaskDispatcher dispatcher;
+  private final IndexStatusStore indexStatusStore;
+  private final IndexConfiguration configuration;
+  private final IndexMetrics metrics;
+  private final ScheduledExecutorService executor;
+  private final Semaphore permits;
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+  @Inject
+  public StartupIndexScheduler(IndexTaskDispatcher dispatcher,
+                               IndexStatusStore indexStatusStore,
+                               IndexConfiguration configuration,
+                               IndexMetrics metrics) {
+    this(dispatcher, indexStatusStore, configuration, metrics, createExecutor());
+  }
+
+  @VisibleForTesting
+  StartupIndexScheduler(IndexTaskDispatcher dispatcher,
+                        IndexStatusStore indexStatusStore,
+                        IndexConfiguration configuration,
+                        IndexMetrics metrics,
+                        ScheduledExecutorService executor) {
+    this.dispatcher = dispatcher;
+    this.indexStatusStore = indexStatusStore;
+    this.configuration = configuration;
+    this.metrics = metrics;
+    this.executor = executor;
+    this.permits = new Semaphore(Math.max(1, configuration.getStartupConcurrency()));
+    // a task dropped on shutdown never reports back
+    dispatcher.onDropped(task -> {
+      if (task.isStartup()) {
+        finished(task.getRepository());
+      }
+    });
+  }
+
+  private static ScheduledExecutorService createExecutor() {
+    return Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("CommitSearchStartup-%d").setDaemon(true).build()
+    );
+  }
+
+  public void schedule(Collection<Repository> repositories) {
+    List<Repository> ordered = prioritize(requiringCheck(repositories));
+    LOG.debug("schedule index check of {} repositories in {} seconds", ordered.size(), configuration.getStartupDelay());
+    metrics.startupPending(ordered.size());
+    executor.schedule(() -> submitAll(ordered, true), configuration.getStartupDelay(), TimeUnit.SECONDS);
+  }
+
+  /**
+   * Submits the index tasks of the given repositories without delay, but with the bounded number of unfinished
+   * tasks of the startup check, e.g. for a requested reindex of many repositories. The tasks are submitted
+   * after the tasks of a running startup check.
+   */
+  void submit(List<Repository> repositories) {
+    LOG.debug("submit index tasks of {} repositories", repositories.size());
+    executor.execute(() -> submitAll(repositories, false));
+  }
+
+  private Collection<Repository> requiringCheck(Collection<Repository> repositories) {
+    if (!configuration.isSkipUnchanged()) {
+      return repositories;
+    }
+    List<Repository> changed = repositories.stream()
+      .filter(repository -> !isUpToDate(repository))
+      .collect(Collectors.toList());
+    LOG.debug("skip index check of {} unchanged repositories", repositories.size() - changed.size());
+    return changed;
+  }
+
+  private boolean isUpToDate(Repository repository) {
+    return indexStatusStore.get(repository)
+      .map(status -> status.isUpToDate(repository))
+      .orElse(false);
+  }
+
+  @VisibleForTesting
+  List<Repository> prioritize(Collection<Repository> repositories) {
+    Map<String, Instant> lastUpdates = repositories.stream()
+      .collect(Collectors.toMap(Repository::getId, this::lastUpdate, (a, b) -> a));
+    return repositories.stream()
+      .sorted(Comparator.comparing((Repository r) -> lastUpdates.get(r.getId())).reversed())
+      .collect(Collectors.toList());
+  }
+
+  private Instant lastUpdate(Repository repository) {
+    return indexStatusStore.get(repository)
+      .filter(status -> status.getVersion() == IndexedChangeset.VERSION)
+      .filter(status -> !status.isEmpty())
+      .map(IndexStatus::getLastUpdate)
+      // never indexed repositories first
+      .orElse(Instant.MAX);
+  }
+
+  private void submitAll(List<Repository> repositories, boolean startup) {
+    for (Repository repository : repositories) {
+      if (!acquire(repository)) {
+        LOG.debug("submission of index tasks was interrupted");
+        return;
+      }
+      LOG.debug("check if index of repository {}, requires update", repository);
+      // the task reports back to the scheduler, once it has finished
+      dispatcher.submit(repository, new IndexerTask(repository, null, true));
+      if (startup) {
+        metrics.startupSubmitted();
+      }
+    }
+  }
+
+  private boolean acquire(Repository repository) {
+    try {
+      if (permits.tryAcquire(PERMIT_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+        inFlight.add(repository.getId());
+      } else {
+        LOG.warn("no scheduled index task finished within {} minutes, submit task for {} anyway", PERMIT_TIMEOUT_MINUTES, repository);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Called by a scheduled index task, once it has finished.
+   */
+  void finished(Repository repository) {
+    if (inFlight.remove(repository.getId())) {
+      permits.release();
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -21,15 +21,78 @@ import lombok.Data;
 import sonia.scm.repository.Changeset;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Changesets of one or more pushes, which have to be applied to the index. The object travels inside of the
+ * serialized index task, so it carries only the ids of the changesets. The documents of small pushes are mapped
+ * upfront, the changesets of larger pushes are read from the repository by the worker in pages.
+ */
 @AllArgsConstructor
 @Data
 class UpdatedChangesets implements Serializable {
-  private final List<Changeset> addedChangesets;
-  private final List<Changeset> removedChangesets;
+  private static final long serialVersionUID = 1L;
+
+  private final List<String> addedIds;
+  private final List<String> removedIds;
+  /**
+   * Already mapped documents by id. Added changesets without a document are read from the repository.
+   */
+  private final Map<String, IndexedChangeset> documents;
+
+  static UpdatedChangesets of(Collection<Changeset> added, Collection<Changeset> removed, int inlineLimit) {
+    List<String> addedIds = new ArrayList<>(added.size());
+    Map<String, IndexedChangeset> documents = new LinkedHashMap<>();
+    boolean inline = added.size() <= inlineLimit;
+    for (Changeset changeset : added) {
+      addedIds.add(changeset.getId());
+      if (inline) {
+        documents.put(changeset.getId(), new IndexedChangeset(changeset));
+      }
+    }
+    List<String> removedIds = new ArrayList<>(removed.size());
+    for (Changeset changeset : removed) {
+      removedIds.add(changeset.getId());
+    }
+    return new UpdatedChangesets(addedIds, removedIds, documents);
+  }
 
   boolean isEmpty() {
-    return addedChangesets.isEmpty() && removedChangesets.isEmpty();
+    return addedIds.isEmpty() && removedIds.isEmpty();
+  }
+
+  /**
+   * Returns {@code true}, if some added changesets were not mapped upfront and have to be read from the repository.
+   */
+  boolean hasMissingDocuments() {
+    return !documents.keySet().containsAll(addedIds);
+  }
+
+  /**
+   * Merges the changesets of a later push into this one. Changesets which were added and removed again
+   * cancel each other out, changesets which were removed and added again are stored.
+   */
+  UpdatedChangesets merge(UpdatedChangesets next) {
+    Set<String> added = new LinkedHashSet<>(addedIds);
+    Set<String> removed = new LinkedHashSet<>(removedIds);
+    for (String id : next.getRemovedIds()) {
+      if (!added.remove(id)) {
+        removed.add(id);
+      }
+    }
+    for (String id : next.getAddedIds()) {
+      removed.remove(id);
+      added.add(id);
+    }
+    Map<String, IndexedChangeset> mergedDocuments = new LinkedHashMap<>(documents);
+    mergedDocuments.putAll(next.getDocuments());
+    mergedDocuments.keySet().retainAll(added);
+    return new UpdatedChangesets(new ArrayList<>(added), new ArrayList<>(removed), mergedDocuments);
   }
 }
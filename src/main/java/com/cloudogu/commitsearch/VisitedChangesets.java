@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import sonia.scm.repository.Changeset;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers the changesets, which were already visited during a walk over multiple branches,
+ * so that shared history is stored only once.
+ * Only a 64 bit hash of every id is kept in an open addressing table of primitive longs,
+ * which needs about 16 bytes per changeset instead of a set of strings.
+ */
+@SuppressWarnings("UnstableApiUsage")
+class VisitedChangesets {
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+  private static final int INITIAL_CAPACITY = 1024;
+  // zero marks a free slot
+  private static final long FREE = 0L;
+
+  private long[] table = new long[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * Returns the changesets of the page, which were not visited before, and marks them as visited.
+   */
+  List<Changeset> filter(List<Changeset> changesets) {
+    List<Changeset> unvisited = new ArrayList<>(changesets.size());
+    for (Changeset changeset : changesets) {
+      if (add(changeset.getId())) {
+        unvisited.add(changeset);
+      }
+    }
+    return unvisited;
+  }
+
+  /**
+   * Marks the id as visited and returns {@code true}, if it was not visited before.
+   */
+  boolean add(String id) {
+    if ((size + 1) * 2 > table.length) {
+      grow();
+    }
+    if (insert(table, hash(id))) {
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns {@code true}, if the id was visited before. Only the hashes are kept, so in the very unlikely case
+   * of a collision an id which was not visited is reported as visited, too.
+   */
+  boolean contains(String id) {
+    long hash = hash(id);
+    int mask = table.length - 1;
+    int slot = slot(hash, mask);
+    while (table[slot] != FREE) {
+      if (table[slot] == hash) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private static long hash(String id) {
+    long hash = HASH.hashString(id, StandardCharsets.UTF_8).asLong();
+    return hash == FREE ? 1L : hash;
+  }
+
+  private static boolean insert(long[] table, long hash) {
+    int mask = table.length - 1;
+    int slot = slot(hash, mask);
+    while (table[slot] != FREE) {
+      if (table[slot] == hash) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = hash;
+    return true;
+  }
+
+  private static int slot(long hash, int mask) {
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private void grow() {
+    long[] grown = new long[table.length * 2];
+    for (long hash : table) {
+      if (hash != FREE) {
+        insert(grown, hash);
+      }
+    }
+    table = grown;
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Feature;
+import sonia.scm.repository.Person;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.BranchesCommandBuilder;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.LogCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BranchSyncTest {
+
+  @Mock
+  private RepositoryService service;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private LogCommandBuilder logCommand;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private BranchesCommandBuilder branchesCommand;
+  @Mock
+  private Indexer indexer;
+
+  private BranchSync branchSync;
+
+  @BeforeEach
+  void initService() throws IOException {
+    lenient().when(service.getRepository()).thenReturn(RepositoryTestData.create42Puzzle());
+    lenient().when(service.isSupported(Feature.INCOMING_REVISION)).thenReturn(true);
+    lenient().when(service.getLogCommand()).thenReturn(logCommand);
+    lenient().when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    lenient().when(logCommand.getChangeset(anyString())).thenAnswer(ic -> changeset(ic.getArgument(0)));
+    branchSync = new BranchSync(service, indexer, 10);
+  }
+
+  @Test
+  void shouldReadHeads() throws IOException {
+    when(branchesCommand.getBranches()).thenReturn(new Branches(
+      Branch.normalBranch("develop", "2", 0L),
+      Branch.defaultBranch("main", "1", 0L)
+    ));
+
+    BranchSync.Heads heads = branchSync.heads();
+
+    assertThat(heads.getRevisions()).containsEntry("main", "1").containsEntry("develop", "2");
+    assertThat(heads.getDefaultBranch()).isEqualTo("main");
+    verify(branchesCommand).setDisableCache(true);
+  }
+
+  @Test
+  void shouldBeSupportedWithBranchesAndLog() {
+    when(service.isSupported(Command.BRANCHES)).thenReturn(true);
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+
+    assertThat(BranchSync.isSupported(service)).isTrue();
+  }
+
+  @Test
+  void shouldNotBeSupportedWithoutAncestors() {
+    when(service.isSupported(Command.BRANCHES)).thenReturn(true);
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.isSupported(Feature.INCOMING_REVISION)).thenReturn(false);
+
+    assertThat(BranchSync.isSupported(service)).isFalse();
+  }
+
+  @Test
+  void shouldStoreOnlyChangesetsOfMovedBranches() throws IOException {
+    Changeset three = changeset("3");
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(1, List.of(three)),
+      // the previous head is reachable from the new one
+      new ChangesetPagingResult(0, Collections.emptyList())
+    );
+
+    branchSync.sync(
+      Map.of("main", "1", "develop", "2"),
+      new BranchSync.Heads(Map.of("main", "1", "develop", "3"), "main"),
+      Collections.emptySet()
+    );
+
+    verify(indexer).store(List.of(three));
+    verify(logCommand).setBranch("develop");
+    verify(logCommand).setAncestorChangeset("2");
+    verify(logCommand, never()).setBranch("main");
+    verify(indexer, never()).delete(any());
+  }
+
+  @Test
+  void shouldDeleteChangesetsOfRewrittenBranch() throws IOException {
+    Changeset three = changeset("3");
+    when(logCommand.getChangesets()).thenReturn(
+      // new changesets of develop
+      new ChangesetPagingResult(1, List.of(three)),
+      // changesets of the previous head, which are not reachable from the new head
+      new ChangesetPagingResult(1, List.of(changeset("2"))),
+      // changesets of the previous head, which are not on the default branch
+      new ChangesetPagingResult(1, List.of(changeset("2"))),
+      // changesets of develop, which are not on the default branch
+      new ChangesetPagingResult(1, List.of(three))
+    );
+
+    branchSync.sync(
+      Map.of("main", "1", "develop", "2"),
+      new BranchSync.Heads(Map.of("main", "1", "develop", "3"), "main"),
+      Collections.emptySet()
+    );
+
+    verify(indexer).store(List.of(three));
+    verify(indexer).delete(Set.of("2"));
+  }
+
+  @Test
+  void shouldSkipBranchesCoveredByHookEvent() throws IOException {
+    branchSync.sync(
+      Map.of("main", "1"),
+      new BranchSync.Heads(Map.of("main", "2"), "main"),
+      Set.of("2")
+    );
+
+    verify(logCommand, never()).getChangesets();
+  }
+
+  @Test
+  void shouldUsePreviousDefaultHeadAsAncestorOfNewBranch() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset("4"))));
+
+    branchSync.sync(
+      Map.of("main", "1"),
+      new BranchSync.Heads(Map.of("main", "1", "feature", "4"), "main"),
+      Collections.emptySet()
+    );
+
+    verify(logCommand).setBranch("feature");
+    verify(logCommand).setAncestorChangeset("1");
+  }
+
+  @Test
+  void shouldDeleteChangesetsOnlyReachableFromDeletedBranch() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(
+      // changesets of the deleted branch, which are not on the default branch
+      new ChangesetPagingResult(2, List.of(changeset("5"), changeset("4"))),
+      // changesets of develop, which are not on the default branch
+      new ChangesetPagingResult(1, List.of(changeset("4")))
+    );
+
+    branchSync.sync(
+      Map.of("main", "1", "develop", "4", "feature", "5"),
+      new BranchSync.Heads(Map.of("main", "1", "develop", "4"), "main"),
+      Collections.emptySet()
+    );
+
+    verify(logCommand).setStartChangeset("5");
+    verify(indexer).delete(Set.of("5"));
+  }
+
+  private static Changeset changeset(String id) {
+    return new Changeset(id, 0L, Person.toPerson("trillian"), "commit " + id);
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Feature;
+import sonia.scm.repository.Person;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.BranchesCommandBuilder;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.LogCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChangesetPagerTest {
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  @Mock
+  private RepositoryService service;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private LogCommandBuilder logCommand;
+  @Mock
+  private BranchesCommandBuilder branchesCommand;
+
+  private final List<List<Changeset>> pages = new ArrayList<>();
+
+  @BeforeEach
+  void initService() {
+    lenient().when(service.getRepository()).thenReturn(repository);
+    lenient().when(service.getLogCommand()).thenReturn(logCommand);
+  }
+
+  @Test
+  void shouldReadDefaultBranchInPages() throws IOException {
+    Changeset one = changeset("1");
+    Changeset two = changeset("2");
+    Changeset three = changeset("3");
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(three, two)),
+      new ChangesetPagingResult(3, List.of(one))
+    );
+
+    new ChangesetPager(service, 2).forEachPage(pages::add);
+
+    assertThat(pages).containsExactly(List.of(three, two), List.of(one));
+    verify(logCommand).setPagingStart(0);
+    verify(logCommand).setPagingStart(2);
+  }
+
+  @Test
+  void shouldStopOnEmptyPage() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(4, List.of(changeset("1"), changeset("2"))),
+      new ChangesetPagingResult(4, List.of())
+    );
+
+    new ChangesetPager(service, 2).forEachPage(pages::add);
+
+    assertThat(pages).hasSize(1);
+  }
+
+  @Test
+  void shouldReadEveryBranch() throws IOException {
+    when(service.isSupported(Command.BRANCHES)).thenReturn(true);
+    when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    when(branchesCommand.getBranches()).thenReturn(new Branches(
+      Branch.normalBranch("main", "1", 0L),
+      Branch.normalBranch("develop", "2", 0L)
+    ));
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(1, List.of(changeset("1"))),
+      new ChangesetPagingResult(1, List.of(changeset("2")))
+    );
+
+    new ChangesetPager(service, 10).forEachPage(pages::add);
+
+    assertThat(pages).hasSize(2);
+    verify(logCommand).setBranch("main");
+    verify(logCommand).setBranch("develop");
+  }
+
+  @Test
+  void shouldResumeAtBranchAndOffset() throws IOException {
+    when(service.isSupported(Command.BRANCHES)).thenReturn(true);
+    when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    when(branchesCommand.getBranches()).thenReturn(new Branches(
+      Branch.normalBranch("develop", "2", 0L),
+      Branch.defaultBranch("main", "1", 0L),
+      Branch.normalBranch("feature", "3", 0L)
+    ));
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(6, List.of(changeset("4"))),
+      new ChangesetPagingResult(1, List.of(changeset("3")))
+    );
+    List<Integer> offsets = new ArrayList<>();
+
+    new ChangesetPager(service, 10).forEachPage(
+      new ChangesetPager.Position("develop", null, 5),
+      (changesets, next) -> offsets.add(next.getOffset())
+    );
+
+    assertThat(offsets).containsExactly(6, 1);
+    verify(logCommand).setBranch("develop");
+    verify(logCommand).setBranch("feature");
+    verify(logCommand, never()).setBranch("main");
+    verify(logCommand).setPagingStart(5);
+  }
+
+  @Test
+  void shouldWalkPinnedHeads() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(6, List.of(changeset("4"))),
+      new ChangesetPagingResult(1, List.of(changeset("3")))
+    );
+    List<String> branches = new ArrayList<>();
+
+    new ChangesetPager(service, 10).forEachPage(
+      Map.of("main", "1", "develop", "2", "feature", "3"), null, new ChangesetPager.Position("develop", null, 5),
+      (changesets, next) -> branches.add(next.getBranch())
+    );
+
+    assertThat(branches).containsExactly("develop", "feature");
+    verify(logCommand).setStartChangeset("2");
+    verify(logCommand).setStartChangeset("3");
+    verify(logCommand, never()).setStartChangeset("1");
+    verify(logCommand, never()).setBranch(any());
+    verify(logCommand).setPagingStart(5);
+  }
+
+  @Test
+  void shouldExcludeAncestorIfSupported() throws IOException {
+    when(service.isSupported(Feature.INCOMING_REVISION)).thenReturn(true);
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset("3"))));
+
+    new ChangesetPager(service, 10, "2").forEachPage(pages::add);
+
+    assertThat(pages).containsExactly(List.of(changeset("3")));
+    verify(logCommand).setAncestorChangeset("2");
+  }
+
+  @Test
+  void shouldStopAtAncestorWithoutSupportForAncestors() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(5, List.of(changeset("5"), changeset("4"))),
+      new ChangesetPagingResult(5, List.of(changeset("3"), changeset("2")))
+    );
+
+    new ChangesetPager(service, 2, "2").forEachPage(pages::add);
+
+    assertThat(pages).containsExactly(List.of(changeset("5"), changeset("4")), List.of(changeset("3")));
+    verify(logCommand, never()).setAncestorChangeset(any());
+    verify(logCommand, never()).setPagingStart(4);
+  }
+
+  @Test
+  void shouldContinueFromOnlyUnreadParent() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(4, List.of(changeset("4", "3"), changeset("3", "2"))),
+      new ChangesetPagingResult(2, List.of(changeset("2", "1"), changeset("1")))
+    );
+    List<ChangesetPager.Position> positions = new ArrayList<>();
+
+    new ChangesetPager(service, 2).forEachPage(ChangesetPager.Position.START, (changesets, next) -> positions.add(next));
+
+    assertThat(positions).containsExactly(
+      new ChangesetPager.Position(null, "2", 0),
+      new ChangesetPager.Position(null, "2", 2)
+    );
+    verify(logCommand).setStartChangeset("2");
+    verify(logCommand, never()).setPagingStart(2);
+  }
+
+  @Test
+  void shouldKeepOffsetWithMoreThanOneUnreadParent() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(4, List.of(changeset("4", "3", "2"), changeset("3", "1"))),
+      new ChangesetPagingResult(4, List.of(changeset("2", "1"), changeset("1")))
+    );
+
+    new ChangesetPager(service, 2).forEachPage(pages::add);
+
+    assertThat(pages).hasSize(2);
+    verify(logCommand, never()).setStartChangeset(any());
+    verify(logCommand).setPagingStart(2);
+  }
+
+  @Test
+  void shouldWalkOtherBranchesDownToDefaultHead() throws IOException {
+    when(service.isSupported(Command.BRANCHES)).thenReturn(true);
+    when(service.isSupported(Feature.INCOMING_REVISION)).thenReturn(true);
+    when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    when(branchesCommand.getBranches()).thenReturn(new Branches(
+      Branch.normalBranch("develop", "2", 0L),
+      Branch.defaultBranch("main", "1", 0L)
+    ));
+    when(logCommand.getChangesets()).thenReturn(
+      new ChangesetPagingResult(1, List.of(changeset("1"))),
+      new ChangesetPagingResult(1, List.of(changeset("2", "1")))
+    );
+
+    new ChangesetPager(service, 10).forEachPage(pages::add);
+
+    assertThat(pages).containsExactly(List.of(changeset("1")), List.of(changeset("2", "1")));
+    verify(logCommand).setAncestorChangeset("1");
+  }
+
+  @Test
+  void shouldResumePinnedHeadsFromStartChangeset() throws IOException {
+    when(service.isSupported(Feature.INCOMING_REVISION)).thenReturn(true);
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset("7"))));
+
+    new ChangesetPager(service, 10).forEachPage(
+      Map.of("main", "1", "develop", "2"), "main", new ChangesetPager.Position("develop", "7", 4),
+      (changesets, next) -> pages.add(changesets)
+    );
+
+    assertThat(pages).containsExactly(List.of(changeset("7")));
+    verify(logCommand).setStartChangeset("7");
+    verify(logCommand, never()).setStartChangeset("2");
+    verify(logCommand).setAncestorChangeset("1");
+    verify(logCommand).setPagingStart(4);
+  }
+
+  private Changeset changeset(String id, String... parents) {
+    Changeset changeset = new Changeset(id, 0L, Person.toPerson("trillian"), "commit " + id);
+    changeset.setParents(List.of(parents));
+    return changeset;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Person;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.LogCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ConsistencyCheckerTest {
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  @Mock
+  private RepositoryService service;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private LogCommandBuilder logCommand;
+  @Mock
+  private Indexer indexer;
+  @Mock
+  private ConsistencySweep sweep;
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+
+  private ConsistencyChecker checker;
+
+  @BeforeEach
+  void initChecker() {
+    lenient().when(service.getRepository()).thenReturn(repository);
+    lenient().when(service.getLogCommand()).thenReturn(logCommand);
+    configuration.setPageSize(10);
+    configuration.setSweepSampleSize(0);
+    checker = new ConsistencyChecker(service, indexer, sweep, configuration);
+  }
+
+  @Test
+  void shouldStoreMissingChangesets() throws IOException {
+    Changeset one = changeset("1");
+    Changeset two = changeset("2");
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(2, List.of(two, one)));
+    when(sweep.indexed(eq(repository), anyCollection())).thenReturn(Set.of("1"));
+    when(indexer.store(List.of(two))).thenReturn(1);
+    // the repaired changeset is not committed yet
+    when(sweep.count(repository)).thenReturn(1L);
+
+    checker.verify();
+
+    verify(indexer).store(List.of(two));
+    verify(sweep).throttle(2);
+    verify(sweep, never()).forEachIndexedPage(any(), any());
+  }
+
+  @Test
+  void shouldNotStoreAnythingIfIndexIsComplete() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset("1"))));
+    when(sweep.indexed(eq(repository), anyCollection())).thenReturn(Set.of("1"));
+    when(sweep.count(repository)).thenReturn(1L);
+
+    checker.verify();
+
+    verify(indexer, never()).store(any());
+    verify(indexer, never()).delete(any());
+  }
+
+  @Test
+  void shouldDeleteStaleChangesets() throws IOException {
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset("1"))));
+    when(sweep.indexed(eq(repository), anyCollection())).thenReturn(Set.of("1"));
+    when(sweep.count(repository)).thenReturn(3L);
+    doAnswer(invocation -> {
+      Consumer<List<String>> consumer = invocation.getArgument(1);
+      consumer.accept(List.of("1", "2"));
+      consumer.accept(List.of("3"));
+      return null;
+    }).when(sweep).forEachIndexedPage(eq(repository), any());
+
+    checker.verify();
+
+    verify(indexer).delete(List.of("2"));
+    verify(indexer).delete(List.of("3"));
+    verify(indexer, never()).deleteAll();
+  }
+
+  @Test
+  void shouldVerifyOnlyLatestChangesetsOfSample() throws IOException {
+    configuration.setSweepSampleSize(5);
+    Changeset two = changeset("2");
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(100, List.of(two)));
+    when(sweep.indexed(eq(repository), anyCollection())).thenReturn(Set.of());
+
+    checker.verify();
+
+    verify(logCommand).setPagingLimit(5);
+    verify(indexer).store(List.of(two));
+    verify(sweep, never()).count(any());
+  }
+
+  private static Changeset changeset(String id) {
+    return new Changeset(id, 0L, Person.toPerson("trillian"), "commit " + id);
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.schedule.Scheduler;
+import sonia.scm.search.SearchEngine;
+import sonia.scm.web.security.AdministrationContext;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("UnstableApiUsage")
+class ConsistencySweepTest {
+
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+  private final Repository puzzle = RepositoryTestData.create42Puzzle();
+  private final Repository restaurant = RepositoryTestData.createRestaurantAtTheEndOfTheUniverse();
+
+  @Mock
+  private AdministrationContext administrationContext;
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private SearchEngine searchEngine;
+  @Mock
+  private IndexStatusStore indexStatusStore;
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Mock
+  private Scheduler scheduler;
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+
+  private ConsistencySweep sweep;
+
+  @BeforeEach
+  void initSweep() {
+    heartOfGold.setId("hog");
+    puzzle.setId("puzzle");
+    restaurant.setId("restaurant");
+    sweep = new ConsistencySweep(
+      administrationContext, repositoryManager, searchEngine, indexStatusStore, dispatcher, configuration, scheduler
+    );
+  }
+
+  @Test
+  void shouldScheduleSweep() {
+    configuration.setSweepCron("0 0 3 * * ?");
+
+    sweep.start();
+
+    verify(scheduler).schedule(eq("0 0 3 * * ?"), any(Runnable.class));
+  }
+
+  @Test
+  void shouldNotScheduleDisabledSweep() {
+    configuration.setSweepCron("");
+
+    sweep.start();
+
+    verify(scheduler).schedule(eq(ConsistencySweep.RETRY_CRON), any(Runnable.class));
+    verifyNoMoreInteractions(scheduler);
+  }
+
+  @Test
+  void shouldVerifyOnlyCompletelyIndexedRepositories() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle, restaurant));
+    when(indexStatusStore.get(heartOfGold)).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+    IndexStatus pending = new IndexStatus("2", Instant.now(), IndexedChangeset.VERSION);
+    pending.setPendingUpdates(1);
+    when(indexStatusStore.get(puzzle)).thenReturn(Optional.of(pending));
+    when(indexStatusStore.get(restaurant)).thenReturn(Optional.empty());
+
+    sweep.sweep();
+
+    verify(dispatcher).submit(eq(heartOfGold), any(IndexerTask.class));
+    verify(dispatcher, never()).submit(eq(puzzle), any(IndexerTask.class));
+    verify(dispatcher, never()).submit(eq(restaurant), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldVerifyNextRepositoryAfterPreviousFinished() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+    when(indexStatusStore.get(any())).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+    doAnswer(ic -> {
+      sweep.finished(heartOfGold);
+      return null;
+    }).when(dispatcher).submit(eq(heartOfGold), any(IndexerTask.class));
+
+    sweep.sweep();
+
+    verify(dispatcher).submit(eq(puzzle), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldNotSweepAfterStop() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold));
+    when(indexStatusStore.get(any())).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+
+    sweep.stop();
+    sweep.sweep();
+
+    verify(dispatcher, never()).submit(any(), any());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldVerifyNextRepositoryAfterPreviousWasDropped() {
+    ArgumentCaptor<Consumer<IndexerTask>> listener = ArgumentCaptor.forClass(Consumer.class);
+    verify(dispatcher).onDropped(listener.capture());
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+    when(indexStatusStore.get(any())).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+    doAnswer(ic -> {
+      listener.getValue().accept(ic.getArgument(1));
+      return null;
+    }).when(dispatcher).submit(eq(heartOfGold), any(IndexerTask.class));
+
+    sweep.sweep();
+
+    verify(dispatcher).submit(eq(puzzle), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldStopWaitingForPreviousRepositoryOnShutdown() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+    when(indexStatusStore.get(any())).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+    when(dispatcher.isStopping()).thenReturn(true);
+
+    sweep.sweep();
+
+    verify(dispatcher).submit(eq(heartOfGold), any(IndexerTask.class));
+    verify(dispatcher, never()).submit(eq(puzzle), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldRetryRepositoryOnceAfterQuarantineExpired() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle, restaurant));
+    when(indexStatusStore.get(heartOfGold)).thenReturn(Optional.of(quarantined(Instant.now().minusSeconds(10))));
+    when(indexStatusStore.get(puzzle)).thenReturn(Optional.of(quarantined(Instant.now().plusSeconds(60))));
+    when(indexStatusStore.get(restaurant)).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+
+    sweep.retryQuarantined();
+    sweep.retryQuarantined();
+
+    verify(dispatcher).submit(eq(heartOfGold), argThat(task -> !task.isVerify() && task.getChangesets() == null));
+    verify(dispatcher, never()).submit(eq(puzzle), any(IndexerTask.class));
+    verify(dispatcher, never()).submit(eq(restaurant), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldRetryAgainAfterNextQuarantineExpired() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold));
+    when(indexStatusStore.get(heartOfGold)).thenReturn(
+      Optional.of(quarantined(Instant.now().minusSeconds(120))),
+      Optional.of(quarantined(Instant.now().minusSeconds(10)))
+    );
+
+    sweep.retryQuarantined();
+    sweep.retryQuarantined();
+
+    verify(dispatcher, times(2)).submit(eq(heartOfGold), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldNotRetryOnShutdown() {
+    when(dispatcher.isStopping()).thenReturn(true);
+
+    sweep.retryQuarantined();
+
+    verify(dispatcher, never()).submit(any(), any());
+  }
+
+  private IndexStatus quarantined(Instant nextRetry) {
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setFailures(1);
+    status.setNextRetry(nextRetry);
+    return status;
+  }
+}
@@ -18,30 +18,32 @@ package com.cloudogu.commitsearch;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.Answers;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import sonia.scm.repository.DefaultBranchChangedEvent;
+import sonia.scm.repository.Feature;
 import sonia.scm.repository.PostReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.repository.api.HookChangesetBuilder;
 import sonia.scm.repository.api.HookContext;
-import sonia.scm.search.SearchEngine;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
 import sonia.scm.web.security.AdministrationContext;
 import sonia.scm.web.security.PrivilegedAction;
 
 import java.util.Collections;
 
-import static org.assertj.core.api.Assertions.assertThat;
+import static java.util.Collections.emptyList;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -51,42 +53,66 @@ class IndexListenerTest {
   AdministrationContext administrationContext;
   @Mock
   RepositoryManager repositoryManager;
-  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
-  SearchEngine searchEngine;
+  @Mock
+  StartupIndexScheduler startupIndexScheduler;
+  @Mock
+  PushCoalescer pushCoalescer;
+  @Mock
+  IndexTaskDispatcher dispatcher;
+  @Mock
+  ConsistencySweep consistencySweep;
+  @Mock
+  IndexStatusStore indexStatusStore;
+  @Spy
+  IndexConfiguration configuration = new IndexConfiguration();
+  @Mock
+  RepositoryServiceFactory repositoryServiceFactory;
+  @Mock
+  RepositoryService repositoryService;
 
   @InjectMocks
   private IndexListener indexListener;
 
-  @Captor
-  private ArgumentCaptor<IndexerTask> taskCaptor;
-
   @Test
   void shouldTriggerUpdateOnPostReceiveRepositoryHookEvent() {
     Repository heartOfGold = RepositoryTestData.createHeartOfGold();
 
     PostReceiveRepositoryHookEvent event = mock(PostReceiveRepositoryHookEvent.class);
     when(event.getRepository()).thenReturn(heartOfGold);
-    HookContext context = mock(HookContext.class);
-    when(event.getContext()).thenReturn(context);
-    HookChangesetBuilder changesetBuilder = mock(HookChangesetBuilder.class);
-    when(context.getChangesetProvider()).thenReturn(changesetBuilder);
+    mockAncestorSupport(heartOfGold, true);
 
     indexListener.handle(event);
 
-    assertUpdate(heartOfGold);
+    verify(pushCoalescer).submit(heartOfGold, null);
+    verify(event, never()).getContext();
   }
 
-  private void assertUpdate(Repository repository) {
-    verify(searchEngine.forType(IndexedChangeset.class).forResource(repository)).update(
-      taskCaptor.capture()
-    );
+  @Test
+  void shouldPassChangesetsOfHookEventIfAncestorsAreNotSupported() {
+    Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+    mockAncestorSupport(heartOfGold, false);
 
-    IndexerTask task = taskCaptor.getValue();
-    assertThat(task.getRepository()).isSameAs(repository);
+    indexListener.handle(event(heartOfGold));
+    indexListener.handle(event(heartOfGold));
+
+    verify(pushCoalescer, times(2)).submit(heartOfGold, UpdatedChangesets.of(emptyList(), emptyList(), 10));
+    // the support is read once per repository type
+    verify(repositoryServiceFactory).create(heartOfGold);
   }
 
   @Test
-  void shouldTriggerUpdateOnStart() {
+  void shouldPassChangesetsOfHookEventIfEnabled() {
+    configuration.setHookChangesets(true);
+    Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+
+    indexListener.handle(event(heartOfGold));
+
+    verify(pushCoalescer).submit(heartOfGold, UpdatedChangesets.of(emptyList(), emptyList(), 10));
+    verifyNoInteractions(repositoryServiceFactory);
+  }
+
+  @Test
+  void shouldScheduleUpdateOnStart() {
     Repository heartOfGold = RepositoryTestData.createHeartOfGold();
     when(repositoryManager.getAll()).thenReturn(Collections.singleton(heartOfGold));
     doAnswer(ic -> {
@@ -96,6 +122,34 @@ class IndexListenerTest {
     }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
 
     indexListener.contextInitialized(null);
-    assertUpdate(heartOfGold);
+
+    verify(startupIndexScheduler).schedule(Collections.singleton(heartOfGold));
+    verify(consistencySweep).start();
+  }
+
+  @Test
+  void shouldShutdownStartupSchedulerOnDestroy() {
+    indexListener.contextDestroyed(null);
+
+    verify(startupIndexScheduler).shutdown();
+    verify(pushCoalescer).shutdown();
+    verify(consistencySweep).stop();
+    verify(dispatcher).shutdown();
+    verify(indexStatusStore).close();
+  }
+
+  private PostReceiveRepositoryHookEvent event(Repository repository) {
+    PostReceiveRepositoryHookEvent event = mock(PostReceiveRepositoryHookEvent.class);
+    when(event.getRepository()).thenReturn(repository);
+    HookContext context = mock(HookContext.class);
+    when(event.getContext()).thenReturn(context);
+    HookChangesetBuilder changesetBuilder = mock(HookChangesetBuilder.class);
+    when(context.getChangesetProvider()).thenReturn(changesetBuilder);
+    return event;
+  }
+
+  private void mockAncestorSupport(Repository repository, boolean supported) {
+    when(repositoryServiceFactory.create(repository)).thenReturn(repositoryService);
+    when(repositoryService.isSupported(Feature.INCOMING_REVISION)).thenReturn(supported);
   }
 }
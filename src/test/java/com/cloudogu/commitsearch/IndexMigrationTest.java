@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexMigrationTest {
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+
+  @Test
+  void shouldNotMigrateCurrentVersion() {
+    IndexMigration migration = new IndexMigration(configuration, 3, Map.of());
+
+    assertThat(migration.plan(3)).isEqualTo(IndexMigration.Plan.NONE);
+  }
+
+  @Test
+  void shouldBumpVersionIfNoFieldChanged() {
+    IndexMigration migration = new IndexMigration(configuration, 3, Map.of(2, Set.of(), 3, Set.of()));
+
+    assertThat(migration.plan(1)).isEqualTo(IndexMigration.Plan.BUMP);
+  }
+
+  @Test
+  void shouldUpgradeIfAnyBumpChangedFields() {
+    IndexMigration migration = new IndexMigration(configuration, 3, Map.of(2, Set.of("parent"), 3, Set.of("author")));
+
+    assertThat(migration.plan(1)).isEqualTo(IndexMigration.Plan.UPGRADE);
+    assertThat(migration.changedFields(1)).containsExactly("author", "parent");
+    assertThat(migration.changedFields(2)).containsExactly("author");
+  }
+
+  @Test
+  void shouldReindexIfBumpIsNotDeclared() {
+    IndexMigration migration = new IndexMigration(configuration, 3, Map.of(3, Set.of()));
+
+    assertThat(migration.plan(1)).isEqualTo(IndexMigration.Plan.REINDEX);
+    assertThat(migration.plan(2)).isEqualTo(IndexMigration.Plan.BUMP);
+  }
+
+  @Test
+  void shouldReindexOnDowngrade() {
+    IndexMigration migration = new IndexMigration(configuration, 3, Map.of(4, Set.of()));
+
+    assertThat(migration.plan(4)).isEqualTo(IndexMigration.Plan.REINDEX);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexProgressDtoTest {
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+  private final Instant now = Instant.ofEpochSecond(1000);
+
+  @Test
+  void shouldEstimateEndOfReindex() {
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, now, IndexedChangeset.VERSION);
+    status.setCommitCount(3000);
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("42", now.minusSeconds(10));
+    checkpoint.addStored(1000);
+    status.setCheckpoint(checkpoint);
+
+    IndexProgressDto progress = IndexProgressDto.of(repository, status, now);
+
+    assertThat(progress.isReindexing()).isTrue();
+    assertThat(progress.getDone()).isEqualTo(1000);
+    assertThat(progress.getTotal()).isEqualTo(3000);
+    assertThat(progress.getRate()).isEqualTo(100d);
+    assertThat(progress.getEta()).isEqualTo(now.plusSeconds(20));
+  }
+
+  @Test
+  void shouldNotEstimateWithoutPreviousReindex() {
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, now, IndexedChangeset.VERSION);
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("42", now.minusSeconds(10));
+    checkpoint.addStored(1000);
+    status.setCheckpoint(checkpoint);
+
+    IndexProgressDto progress = IndexProgressDto.of(repository, status, now);
+
+    assertThat(progress.getTotal()).isNull();
+    assertThat(progress.getEta()).isNull();
+  }
+
+  @Test
+  void shouldReportFinishedIndex() {
+    IndexStatus status = new IndexStatus("42", now, IndexedChangeset.VERSION);
+    status.setCommitCount(3000);
+
+    IndexProgressDto progress = IndexProgressDto.of(repository, status, now);
+
+    assertThat(progress.isReindexing()).isFalse();
+    assertThat(progress.getDone()).isEqualTo(3000);
+    assertThat(progress.getRate()).isNull();
+  }
+}
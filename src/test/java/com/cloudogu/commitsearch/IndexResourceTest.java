@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.NotFoundException;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+
+import jakarta.ws.rs.core.Response;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IndexResourceTest {
+
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+  private final Repository puzzle = RepositoryTestData.create42Puzzle();
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private IndexStatusStore indexStatusStore;
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Mock
+  private StartupIndexScheduler scheduler;
+  @Mock
+  private Subject subject;
+
+  @InjectMocks
+  private IndexResource resource;
+
+  @BeforeEach
+  void bindSubject() {
+    heartOfGold.setId("hog");
+    heartOfGold.setNamespace("hitchhiker");
+    puzzle.setId("puzzle");
+    puzzle.setNamespace("games");
+    ThreadContext.bind(subject);
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldReindexRepository() {
+    when(repositoryManager.get(new NamespaceAndName("hitchhiker", heartOfGold.getName()))).thenReturn(heartOfGold);
+
+    Response response = resource.reindexRepository("hitchhiker", heartOfGold.getName());
+
+    assertThat(response.getStatus()).isEqualTo(202);
+    verify(indexStatusStore).reindexRequested(heartOfGold);
+    verify(dispatcher).submit(eq(heartOfGold), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldFailForUnknownRepository() {
+    assertThatThrownBy(() -> resource.reindexRepository("hitchhiker", "unknown"))
+      .isInstanceOf(NotFoundException.class);
+    verifyNoInteractions(dispatcher);
+  }
+
+  @Test
+  void shouldReindexOnlyRepositoriesOfNamespace() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+
+    resource.reindexNamespace("games");
+
+    verify(dispatcher).submit(eq(puzzle), any(IndexerTask.class));
+    verify(dispatcher, never()).submit(eq(heartOfGold), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldFailForUnknownNamespace() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+
+    assertThatThrownBy(() -> resource.reindexNamespace("unknown"))
+      .isInstanceOf(NotFoundException.class);
+  }
+
+  @Test
+  void shouldReindexAllRepositories() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+
+    resource.reindexAll();
+
+    verify(indexStatusStore).reindexRequested(heartOfGold);
+    verify(indexStatusStore).reindexRequested(puzzle);
+    verify(scheduler).submit(List.of(heartOfGold, puzzle));
+    verify(dispatcher, never()).submit(any(), any());
+  }
+
+  @Test
+  void shouldSkipRepositoriesWithRunningReindex() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+    IndexStatus reindexing = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    reindexing.setCheckpoint(new ReindexCheckpoint("42", Instant.now()));
+    when(indexStatusStore.get(heartOfGold)).thenReturn(Optional.of(reindexing));
+    when(indexStatusStore.get(puzzle)).thenReturn(Optional.empty());
+
+    resource.reindexAll();
+
+    verify(indexStatusStore, never()).reindexRequested(heartOfGold);
+    verify(indexStatusStore).reindexRequested(puzzle);
+    verify(dispatcher).submit(eq(puzzle), any(IndexerTask.class));
+    verify(dispatcher, never()).submit(eq(heartOfGold), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldRequirePermission() {
+    doThrow(new AuthorizationException("not allowed")).when(subject).checkPermission(IndexResource.PERMISSION);
+
+    assertThatThrownBy(() -> resource.reindexAll()).isInstanceOf(AuthorizationException.class);
+    verifyNoInteractions(dispatcher, indexStatusStore);
+  }
+
+  @Test
+  void shouldReturnOnlyRepositoriesWithIndexWork() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+    IndexStatus reindexing = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    reindexing.setCheckpoint(new ReindexCheckpoint("42", Instant.now()));
+    when(indexStatusStore.get(heartOfGold)).thenReturn(Optional.of(reindexing));
+    when(indexStatusStore.get(puzzle)).thenReturn(Optional.of(new IndexStatus("21", Instant.now(), IndexedChangeset.VERSION)));
+
+    List<IndexProgressDto> status = resource.getStatus();
+
+    assertThat(status).extracting(IndexProgressDto::getName).containsExactly(heartOfGold.getName());
+  }
+
+  @Test
+  void shouldReturnOnlyFailedRepositoriesAsQuarantine() {
+    when(repositoryManager.getAll()).thenReturn(List.of(heartOfGold, puzzle));
+    IndexStatus failed = new IndexStatus("42", Instant.now(), IndexedChangeset.VERSION);
+    failed.setFailures(3);
+    failed.setLastError("java.lang.IllegalStateException: corrupt pack");
+    failed.setNextRetry(Instant.now().plusSeconds(240));
+    when(indexStatusStore.get(heartOfGold)).thenReturn(Optional.of(failed));
+    when(indexStatusStore.get(puzzle)).thenReturn(Optional.of(new IndexStatus("21", Instant.now(), IndexedChangeset.VERSION)));
+
+    List<IndexQuarantineDto> quarantine = resource.getQuarantine();
+
+    assertThat(quarantine).singleElement().satisfies(dto -> {
+      assertThat(dto.getName()).isEqualTo(heartOfGold.getName());
+      assertThat(dto.getFailures()).isEqualTo(3);
+      assertThat(dto.getLastError()).contains("corrupt pack");
+      assertThat(dto.getNextRetry()).isEqualTo(failed.getNextRetry());
+    });
+  }
+}
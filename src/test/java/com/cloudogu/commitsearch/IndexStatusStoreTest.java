@@ -24,20 +24,118 @@ import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.store.InMemoryByteDataStoreFactory;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 class IndexStatusStoreTest {
 
   private final Repository repository = RepositoryTestData.create42Puzzle();
   private final InMemoryByteDataStoreFactory dataStoreFactory = new InMemoryByteDataStoreFactory();
+  private final IndexConfiguration configuration = new IndexConfiguration();
   private IndexStatusStore store;
 
   @BeforeEach
   void initStore() {
-    store = new IndexStatusStore(dataStoreFactory);
+    configuration.setStatusFlushInterval(0);
+    store = new IndexStatusStore(dataStoreFactory, configuration);
+  }
+
+  @Test
+  void shouldWriteThroughWithoutFlushInterval() {
+    store.update(repository, "42");
+
+    assertThat(new IndexStatusStore(dataStoreFactory, configuration).get(repository)).isPresent();
+  }
+
+  @Test
+  void shouldWriteModificationsOnFlush() {
+    configuration.setStatusFlushInterval(5);
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    IndexStatusStore writeBehind = new IndexStatusStore(dataStoreFactory, configuration, executor);
+    verify(executor).scheduleWithFixedDelay(any(Runnable.class), eq(5L), eq(5L), eq(TimeUnit.SECONDS));
+
+    writeBehind.update(repository, "42", Map.of("main", "42"));
+
+    assertThat(writeBehind.get(repository)).isPresent();
+    assertThat(new IndexStatusStore(dataStoreFactory, configuration).get(repository)).isNotPresent();
+
+    writeBehind.flush();
+
+    IndexStatus persisted = new IndexStatusStore(dataStoreFactory, configuration).get(repository).orElseThrow();
+    assertThat(persisted.getRevision()).isEqualTo("42");
+    assertThat(persisted.getBranches()).containsEntry("main", "42");
+  }
+
+  @Test
+  void shouldFlushOnClose() {
+    configuration.setStatusFlushInterval(5);
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    IndexStatusStore writeBehind = new IndexStatusStore(dataStoreFactory, configuration, executor);
+    writeBehind.update(repository, "42");
+
+    writeBehind.close();
+
+    verify(executor).shutdownNow();
+    assertThat(new IndexStatusStore(dataStoreFactory, configuration).get(repository)).isPresent();
+  }
+
+  @Test
+  void shouldWritePendingUpdatesThrough() {
+    configuration.setStatusFlushInterval(5);
+    IndexStatusStore writeBehind = new IndexStatusStore(dataStoreFactory, configuration, mock(ScheduledExecutorService.class));
+    writeBehind.update(repository, "42");
+
+    writeBehind.updateRequested(repository);
+
+    IndexStatus persisted = new IndexStatusStore(dataStoreFactory, configuration).get(repository).orElseThrow();
+    assertThat(persisted.getRevision()).isEqualTo("42");
+    assertThat(persisted.getPendingUpdates()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldWriteCheckpointThrough() {
+    configuration.setStatusFlushInterval(5);
+    IndexStatusStore writeBehind = new IndexStatusStore(dataStoreFactory, configuration, mock(ScheduledExecutorService.class));
+
+    writeBehind.checkpoint(repository, new ReindexCheckpoint("42", Instant.now()));
+
+    IndexStatus persisted = new IndexStatusStore(dataStoreFactory, configuration).get(repository).orElseThrow();
+    assertThat(persisted.isReindexing()).isTrue();
+  }
+
+  @Test
+  void shouldStoreSnapshotOfCheckpoint() {
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("42", Instant.now());
+    store.checkpoint(repository, checkpoint);
+
+    checkpoint.advance("main", null, 100);
+
+    assertThat(store.get(repository).orElseThrow().getCheckpoint().getOffset()).isZero();
+  }
+
+  @Test
+  void shouldReturnCopyOfStatus() {
+    store.checkpoint(repository, new ReindexCheckpoint("42", Instant.now()));
+    store.updateRequested(repository);
+
+    IndexStatus status = store.get(repository).orElseThrow();
+    status.setPendingUpdates(0);
+    status.getCheckpoint().advance("main", null, 100);
+
+    IndexStatus current = store.get(repository).orElseThrow();
+    assertThat(current.getPendingUpdates()).isEqualTo(1);
+    assertThat(current.getCheckpoint().getOffset()).isZero();
   }
 
   @Test
@@ -80,4 +178,167 @@ class IndexStatusStoreTest {
     assertThat(indexStatus.get().getRevision()).isEqualTo("42");
     assertThat(indexStatus.get().getVersion()).isEqualTo(21);
   }
+
+  @Test
+  void shouldStoreBranchHeads() {
+    store.update(repository, "42", Map.of("main", "42", "develop", "21"));
+
+    IndexStatus indexStatus = store.get(repository).orElseThrow();
+
+    assertThat(indexStatus.getRevision()).isEqualTo("42");
+    assertThat(indexStatus.getBranches()).containsEntry("main", "42").containsEntry("develop", "21");
+  }
+
+  @Test
+  void shouldClearBranchHeadsOnUpdateWithoutBranches() {
+    store.update(repository, "42", Map.of("main", "42"));
+    store.update(repository, "43");
+
+    assertThat(store.get(repository).orElseThrow().getBranches()).isNull();
+  }
+
+  @Test
+  void shouldMarkRequestedReindexAsEmptyAndPending() {
+    store.update(repository, "42");
+
+    store.reindexRequested(repository);
+
+    IndexStatus indexStatus = store.get(repository).orElseThrow();
+    assertThat(indexStatus.isEmpty()).isTrue();
+    assertThat(indexStatus.getPendingUpdates()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldStoreCheckpoint() {
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("42", Instant.now());
+    checkpoint.advance("develop", "42", 1000);
+
+    store.checkpoint(repository, checkpoint);
+
+    Optional<IndexStatus> indexStatus = store.get(repository);
+
+    assertThat(indexStatus).isPresent();
+    assertThat(indexStatus.get().isEmpty()).isTrue();
+    assertThat(indexStatus.get().isReindexing()).isTrue();
+    assertThat(indexStatus.get().getCheckpoint().getBranch()).isEqualTo("develop");
+    assertThat(indexStatus.get().getCheckpoint().getStart()).isEqualTo("42");
+    assertThat(indexStatus.get().getCheckpoint().getOffset()).isEqualTo(1000);
+  }
+
+  @Test
+  void shouldClearCheckpointOnUpdate() {
+    store.checkpoint(repository, new ReindexCheckpoint("42", Instant.now()));
+
+    store.update(repository, "42");
+
+    Optional<IndexStatus> indexStatus = store.get(repository);
+
+    assertThat(indexStatus).isPresent();
+    assertThat(indexStatus.get().isReindexing()).isFalse();
+  }
+
+  @Test
+  void shouldCountPendingUpdates() {
+    store.update(repository, "42");
+
+    store.updateRequested(repository);
+    store.updateRequested(repository);
+    store.updateRequested(repository);
+    store.updatesProcessed(repository, 2);
+
+    assertThat(store.get(repository)).get().extracting(IndexStatus::getPendingUpdates).isEqualTo(1);
+  }
+
+  @Test
+  void shouldKeepPendingUpdatesOnUpdate() {
+    store.update(repository, "42");
+    store.updateRequested(repository);
+
+    store.update(repository, "43");
+
+    assertThat(store.get(repository)).get().extracting(IndexStatus::getPendingUpdates).isEqualTo(1);
+  }
+
+  @Test
+  void shouldNotCountBelowZero() {
+    store.update(repository, "42");
+    store.updateRequested(repository);
+
+    store.updatesProcessed(repository, 2);
+
+    assertThat(store.get(repository)).get().extracting(IndexStatus::getPendingUpdates).isEqualTo(0);
+  }
+
+  @Test
+  void shouldQuarantineFailedRepositoryWithExponentialBackoff() {
+    configuration.setQuarantineBackoff(60);
+    store.update(repository, "42");
+
+    store.failed(repository, "first");
+    Instant firstRetry = store.get(repository).orElseThrow().getNextRetry();
+    store.failed(repository, "second");
+
+    IndexStatus status = store.get(repository).orElseThrow();
+    assertThat(status.getFailures()).isEqualTo(2);
+    assertThat(status.getLastError()).isEqualTo("second");
+    assertThat(status.getRevision()).isEqualTo("42");
+    assertThat(status.isQuarantined(Instant.now())).isTrue();
+    assertThat(Duration.between(firstRetry, status.getNextRetry())).isGreaterThanOrEqualTo(Duration.ofSeconds(59));
+  }
+
+  @Test
+  void shouldLimitBackoff() {
+    configuration.setQuarantineBackoff(60);
+    configuration.setQuarantineMaxBackoff(3600);
+
+    for (int i = 0; i < 100; i++) {
+      store.failed(repository, "failed");
+    }
+
+    assertThat(store.get(repository).orElseThrow().getNextRetry()).isBefore(Instant.now().plusSeconds(3601));
+  }
+
+  @Test
+  void shouldNotQuarantineWithoutBackoff() {
+    configuration.setQuarantineBackoff(0);
+
+    store.failed(repository, "failed");
+
+    IndexStatus status = store.get(repository).orElseThrow();
+    assertThat(status.getFailures()).isEqualTo(1);
+    assertThat(status.isQuarantined(Instant.now())).isFalse();
+  }
+
+  @Test
+  void shouldKeepFailuresOnUpdate() {
+    store.failed(repository, "failed");
+
+    store.checkpoint(repository, new ReindexCheckpoint("42", Instant.now()));
+
+    assertThat(store.get(repository).orElseThrow().getFailures()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldLiftQuarantineOnSuccess() {
+    store.update(repository, "42");
+    store.failed(repository, "failed");
+
+    store.succeeded(repository);
+
+    IndexStatus status = store.get(repository).orElseThrow();
+    assertThat(status.getFailures()).isZero();
+    assertThat(status.getLastError()).isNull();
+    assertThat(status.isQuarantined(Instant.now())).isFalse();
+  }
+
+  @Test
+  void shouldLiftQuarantineOnRequestedReindex() {
+    store.failed(repository, "failed");
+
+    store.reindexRequested(repository);
+
+    IndexStatus status = store.get(repository).orElseThrow();
+    assertThat(status.getFailures()).isZero();
+    assertThat(status.getNextRetry()).isNull();
+  }
 }
@@ -16,26 +16,49 @@
 
 package com.cloudogu.commitsearch;
 
+import com.google.common.collect.Iterables;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
 import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Feature;
 import sonia.scm.repository.Person;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.BranchesCommandBuilder;
 import sonia.scm.repository.api.ChangesetsCommandBuilder;
 import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.LogCommandBuilder;
 import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.search.QueryBuilder;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
 
+import java.io.IOException;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -57,6 +80,22 @@ class IndexSyncWorkerTest {
   private IndexStatusStore store;
   @Mock
   private IndexingContext context;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private LogCommandBuilder logCommandBuilder;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private BranchesCommandBuilder branchesCommand;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private SearchEngine searchEngine;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private QueryBuilder<IndexedChangeset> queryBuilder;
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Captor
+  private ArgumentCaptor<Iterable<IndexedChangeset>> documentsCaptor;
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final Map<Integer, Set<String>> changedFields = new HashMap<>();
 
   private IndexSyncWorker worker;
 
@@ -67,9 +106,107 @@ class IndexSyncWorkerTest {
     when(service.getChangesetsCommand()).thenReturn(changesetsCommandBuilder);
     when(service.getRepository()).thenReturn(repository);
     when(context.getIndexStatusStore()).thenReturn(store);
+    when(context.getConfiguration()).thenReturn(configuration);
+    when(context.getMetrics()).thenReturn(new IndexMetrics(meterRegistry));
+    when(context.getMigration()).thenReturn(new IndexMigration(configuration, IndexedChangeset.VERSION, changedFields));
+    when(context.getSearchEngine()).thenReturn(searchEngine);
+    when(context.getDispatcher()).thenReturn(dispatcher);
     worker = new IndexSyncWorker(context);
 
     lenient().when(service.isSupported(Command.CHANGESETS)).thenReturn(true);
+    lenient().when(service.isSupported(Command.BRANCHES)).thenReturn(false);
+    lenient().when(service.isSupported(Feature.INCOMING_REVISION)).thenReturn(true);
+  }
+
+  @Test
+  void shouldSkipUpdateIfBranchHeadsAreIndexed() throws IOException {
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setBranches(Map.of("main", "1"));
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    mockBranches(Branch.defaultBranch("main", "1", 0L));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(indexer, never()).store(any());
+    verify(store, never()).update(any(), any(), any(Map.class));
+  }
+
+  @Test
+  void shouldSyncMovedBranches() throws IOException {
+    Changeset second = new Changeset("2", 0L, Person.toPerson("trillian"), "second commit");
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setBranches(Map.of("main", "1"));
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    mockBranches(Branch.defaultBranch("main", "2", 0L));
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset("1")).thenReturn(new Changeset("1", 0L, Person.toPerson("trillian"), "first"));
+    when(logCommandBuilder.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(second)));
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(second));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(indexer).store(List.of(second));
+    verify(logCommandBuilder).setAncestorChangeset("1");
+    verify(store).update(repository, "2", Map.of("main", "2"));
+  }
+
+  @Test
+  void shouldSyncPushToOtherBranchOfIndexWithoutBranchHeads() throws IOException {
+    Changeset second = new Changeset("2", 0L, Person.toPerson("trillian"), "feature commit");
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+    mockBranches(Branch.defaultBranch("main", "1", 0L), Branch.normalBranch("feature", "2", 0L));
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset("1")).thenReturn(new Changeset("1", 0L, Person.toPerson("trillian"), "first"));
+    when(logCommandBuilder.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(second)));
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(second));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(indexer).store(List.of(second));
+    verify(logCommandBuilder).setBranch("feature");
+    verify(logCommandBuilder).setAncestorChangeset("1");
+    verify(store).update(repository, "2", Map.of("main", "1", "feature", "2"));
+  }
+
+  @Test
+  void shouldRecordBranchHeadsAfterReindex() throws IOException {
+    configuration.setPageSize(0);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(first));
+    mockBranches(Branch.defaultBranch("main", "1", 0L));
+
+    worker.reIndex();
+
+    verify(store).update(repository, "1", Map.of("main", "1"));
+  }
+
+  @Test
+  void shouldStoreSharedHistoryOfBranchesOnlyOnce() throws IOException {
+    configuration.setPageSize(10);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset second = new Changeset("2", 0L, Person.toPerson("trillian"), "second commit");
+    Changeset third = new Changeset("3", 0L, Person.toPerson("trillian"), "third commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(third));
+    mockBranches(Branch.defaultBranch("main", "2", 0L), Branch.normalBranch("develop", "3", 0L));
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(third, second, first)),
+      new ChangesetPagingResult(2, List.of(second, first))
+    );
+
+    worker.reIndex();
+
+    verify(logCommandBuilder).setStartChangeset("3");
+    verify(logCommandBuilder).setStartChangeset("2");
+    verify(indexer).documents(List.of(third, second, first));
+    verify(indexer, never()).documents(List.of(second, first));
+  }
+
+  private void mockBranches(Branch... branches) throws IOException {
+    when(service.isSupported(Command.BRANCHES)).thenReturn(true);
+    lenient().when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    when(branchesCommand.getBranches()).thenReturn(new Branches(branches));
   }
 
   @Test
@@ -107,15 +244,340 @@ class IndexSyncWorkerTest {
     verify(indexer).store(changesets);
   }
 
+  @Test
+  void shouldReindexInPages() throws IOException {
+    configuration.setPageSize(2);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset second = new Changeset("2", 0L, Person.toPerson("trillian"), "second commit");
+    Changeset third = new Changeset("3", 0L, Person.toPerson("trillian"), "third commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(third));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(third, second)),
+      new ChangesetPagingResult(3, List.of(first))
+    );
+
+    worker.reIndex();
+
+    verify(indexer).deleteAll();
+    verify(indexer).documents(List.of(third, second));
+    verify(indexer).documents(List.of(first));
+    verify(store).update(repository, "3");
+    verify(store).commitCount(repository, 3);
+  }
+
+  @Test
+  void shouldPauseReindexBetweenPagesIfPushIsWaiting() {
+    configuration.setPageSize(2);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset second = new Changeset("2", 0L, Person.toPerson("trillian"), "second commit");
+    Changeset third = new Changeset("3", 0L, Person.toPerson("trillian"), "third commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(third));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(third, second)),
+      new ChangesetPagingResult(3, List.of(first))
+    );
+    when(dispatcher.shouldYield(repository)).thenReturn(true);
+
+    assertThatThrownBy(() -> worker.reIndex())
+      .isInstanceOfSatisfying(IndexingPausedException.class, e -> assertThat(e.getCheckpoint().getOffset()).isEqualTo(2));
+
+    verify(indexer).documents(List.of(third, second));
+    // the reader may have read ahead, but only the first page is written
+    verify(indexer).storeDocuments(any());
+    // the checkpoint after the first page is stored with the continuation
+    verify(store).checkpoint(eq(repository), any(ReindexCheckpoint.class));
+    verify(store, never()).update(repository, "3");
+  }
+
+  @Test
+  void shouldPauseReindexAfterPagesPerTask() {
+    configuration.setPageSize(2);
+    configuration.setPagesPerTask(1);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset second = new Changeset("2", 0L, Person.toPerson("trillian"), "second commit");
+    Changeset third = new Changeset("3", 0L, Person.toPerson("trillian"), "third commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(third));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(third, second)),
+      new ChangesetPagingResult(3, List.of(first))
+    );
+
+    assertThatThrownBy(() -> worker.reIndex())
+      .isInstanceOfSatisfying(IndexingPausedException.class, e -> {
+        assertThat(e.getCheckpoint().getOffset()).isEqualTo(2);
+        assertThat(e.getCheckpoint().getStored()).isEqualTo(2);
+      });
+
+    verify(indexer).storeDocuments(any());
+    verify(store, never()).update(repository, "3");
+  }
+
+  @Test
+  void shouldStopReindexAfterCheckpointOnShutdown() {
+    configuration.setPageSize(2);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset second = new Changeset("2", 0L, Person.toPerson("trillian"), "second commit");
+    Changeset third = new Changeset("3", 0L, Person.toPerson("trillian"), "third commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(third));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(third, second)),
+      new ChangesetPagingResult(3, List.of(first))
+    );
+    when(dispatcher.isStopping()).thenReturn(true);
+
+    assertThatThrownBy(() -> worker.reIndex())
+      .isInstanceOfSatisfying(IndexingPausedException.class, e -> assertThat(e.getCheckpoint()).isNull());
+
+    // only the checkpoint at the start, the first page may not be committed on shutdown
+    verify(store).checkpoint(eq(repository), any(ReindexCheckpoint.class));
+    verify(indexer).storeDocuments(any());
+    verify(store, never()).update(repository, "3");
+  }
+
+  @Test
+  void shouldResumeInterruptedReindex() throws IOException {
+    configuration.setPageSize(2);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("3", Instant.now());
+    checkpoint.advance(null, null, 2);
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    status.setCheckpoint(checkpoint);
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    when(changesetsCommandBuilder.getLatestChangeset())
+      .thenReturn(Optional.of(new Changeset("3", 0L, Person.toPerson("trillian"), "third commit")));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangesets()).thenReturn(new ChangesetPagingResult(3, List.of(first)));
+
+    worker.ensureIndexIsUpToDate(updatedChangesets);
+
+    verify(indexer, never()).deleteAll();
+    verify(logCommandBuilder).setPagingStart(2);
+    verify(indexer).documents(List.of(first));
+    verify(store).update(repository, "3");
+  }
+
+  @Test
+  void shouldStoreChangesetsOfBranchesMovedDuringInterruptedReindex() throws IOException {
+    configuration.setPageSize(2);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset feature = new Changeset("4", 0L, Person.toPerson("trillian"), "feature commit");
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("3", Instant.now());
+    checkpoint.setHeads(Map.of("main", "3", "feature", "2"));
+    checkpoint.advance("main", null, 2);
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    status.setCheckpoint(checkpoint);
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    when(changesetsCommandBuilder.getLatestChangeset())
+      .thenReturn(Optional.of(new Changeset("3", 0L, Person.toPerson("trillian"), "third commit")));
+    mockBranches(Branch.defaultBranch("main", "3", 0L), Branch.normalBranch("feature", "4", 0L));
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset(any())).thenAnswer(invocation -> new Changeset(invocation.getArgument(0), 0L, Person.toPerson("trillian"), "commit"));
+    when(logCommandBuilder.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(first)),
+      new ChangesetPagingResult(1, List.of(feature)),
+      new ChangesetPagingResult(0, emptyList())
+    );
+
+    worker.ensureIndexIsUpToDate(updatedChangesets);
+
+    verify(indexer).documents(List.of(first));
+    verify(logCommandBuilder).setBranch("feature");
+    verify(logCommandBuilder).setAncestorChangeset("2");
+    verify(indexer).store(List.of(feature));
+    verify(store).update(repository, "3", Map.of("main", "3", "feature", "4"));
+  }
+
+  @Test
+  void shouldResumeAndCatchUpIfRepositoryChangedDuringInterruptedReindex() throws IOException {
+    configuration.setPageSize(2);
+    Changeset first = new Changeset("1", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset fourth = new Changeset("4", 0L, Person.toPerson("trillian"), "fourth commit");
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("3", Instant.now());
+    checkpoint.advance(null, null, 2);
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    status.setCheckpoint(checkpoint);
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(fourth));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset("3")).thenReturn(new Changeset("3", 0L, Person.toPerson("trillian"), "third commit"));
+    when(logCommandBuilder.getChangesets()).thenReturn(
+      new ChangesetPagingResult(3, List.of(first)),
+      new ChangesetPagingResult(1, List.of(fourth))
+    );
+
+    worker.ensureIndexIsUpToDate(updatedChangesets);
+
+    verify(indexer, never()).deleteAll();
+    verify(logCommandBuilder).setStartChangeset("3");
+    verify(indexer).documents(List.of(first));
+    verify(logCommandBuilder).setAncestorChangeset("3");
+    verify(indexer).documents(List.of(fourth));
+    verify(store).update(repository, "4");
+  }
+
+  @Test
+  void shouldStartOverIfBranchesMovedDuringInterruptedReindexOfPreviousVersion() throws IOException {
+    configuration.setPageSize(0);
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    status.setCheckpoint(new ReindexCheckpoint("3", Instant.now()));
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    Changeset changeset = new Changeset("4", 0L, Person.toPerson("trillian"), "fourth commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    mockBranches(Branch.defaultBranch("main", "4", 0L));
+
+    worker.ensureIndexIsUpToDate(updatedChangesets);
+
+    verify(indexer).deleteAll();
+    verify(store).update(repository, "4", Map.of("main", "4"));
+  }
+
   @Test
   void shouldReindexIfVersionChanged() {
     when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("42", Instant.now(), 12)));
 
     worker.ensureIndexIsUpToDate(updatedChangesets);
 
+    verify(indexer).deleteAll();
+    assertThat(meterRegistry.get("scm.commitsearch.reindex.version").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("scm.commitsearch.reindex").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldOnlyUpdateVersionIfNoFieldChanged() {
+    changedFields.put(IndexedChangeset.VERSION, Set.of());
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("42", Instant.now(), IndexedChangeset.VERSION - 1)));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "answer");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(store).upgraded(repository);
+    verify(indexer, never()).deleteAll();
+    verify(indexer, never()).store(any());
+  }
+
+  @Test
+  void shouldUpgradeChangedFieldsInPlace() {
+    configuration.setPageSize(0);
+    changedFields.put(IndexedChangeset.VERSION, Set.of("parent"));
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("42", Instant.now(), IndexedChangeset.VERSION - 1)));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "answer");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(changesetsCommandBuilder.getChangesets()).thenReturn(List.of(changeset));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).store(List.of(changeset));
+    verify(store).checkpoint(eq(repository), argThat(ReindexCheckpoint::isUpgrade));
+    verify(store).update(repository, "42");
+    assertThat(meterRegistry.get("scm.commitsearch.reindex.version").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldReindexIfVersionBumpIsNotDeclared() {
+    changedFields.put(IndexedChangeset.VERSION - 1, Set.of());
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("42", Instant.now(), IndexedChangeset.VERSION - 2)));
+
+    worker.ensureIndexIsUpToDate(updatedChangesets);
+
     verify(indexer).deleteAll();
   }
 
+  @Test
+  void shouldContinueUpgradeInPlaceIfRepositoryChanged() {
+    configuration.setPageSize(0);
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("41", Instant.now());
+    checkpoint.setUpgrade(true);
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    status.setCheckpoint(checkpoint);
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "answer");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(changesetsCommandBuilder.getChangesets()).thenReturn(List.of(changeset));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(indexer, never()).deleteAll();
+    verify(store).update(repository, "42");
+  }
+
+  @Test
+  void shouldRewriteDocumentsIfChangedPathsWereEnabled() {
+    configuration.setPageSize(0);
+    when(indexer.isChangedPaths()).thenReturn(true);
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("42", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "answer");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(changesetsCommandBuilder.getChangesets()).thenReturn(List.of(changeset));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).store(List.of(changeset));
+    verify(store).changedPaths(repository, true);
+  }
+
+  @Test
+  void shouldDeleteStaleChangesetsOfPreviousGenerationAfterShadowReindex() {
+    configuration.setPageSize(0);
+    configuration.setShadowReindex(true);
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "answer");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(changesetsCommandBuilder.getChangesets()).thenReturn(List.of(changeset));
+    when(indexer.store(any())).thenAnswer(ic -> Iterables.size(ic.getArgument(0)));
+    when(searchEngine.forType(IndexedChangeset.class).search()).thenReturn(queryBuilder);
+    QueryResult result = PreviousGenerationTest.result(2, "42", "21");
+    when(queryBuilder.execute(anyString())).thenReturn(result);
+
+    worker.reIndex();
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).setGeneration(argThat(Objects::nonNull));
+    verify(indexer).delete(List.of("21"));
+    // the walk visited every reachable changeset, so the candidates are not resolved
+    verify(service, never()).getLogCommand();
+    verify(store).checkpoint(eq(repository), argThat(checkpoint -> checkpoint.getGeneration() != null));
+    verify(store).update(repository, "42");
+  }
+
+  @Test
+  void shouldResolveCandidatesOfPreviousGenerationAfterResumedShadowReindex() throws IOException {
+    configuration.setPageSize(0);
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "answer");
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("42", Instant.now());
+    checkpoint.setGeneration("1");
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    status.setCheckpoint(checkpoint);
+    when(store.get(repository)).thenReturn(Optional.of(status));
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(changesetsCommandBuilder.getChangesets()).thenReturn(List.of(changeset));
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    // 7 was walked before the resume and still exists, 21 is gone
+    when(logCommandBuilder.getChangeset(anyString())).thenAnswer(
+      ic -> "7".equals(ic.getArgument(0)) ? new Changeset("7", 0L, Person.toPerson("trillian"), "seven") : null
+    );
+    when(searchEngine.forType(IndexedChangeset.class).search()).thenReturn(queryBuilder);
+    QueryResult result = PreviousGenerationTest.result(3, "42", "21", "7");
+    when(queryBuilder.execute(anyString())).thenReturn(result);
+
+    worker.ensureIndexIsUpToDate(updatedChangesets);
+
+    verify(indexer).setGeneration("1");
+    verify(indexer).delete(List.of("21"));
+    verify(store).update(repository, "42");
+  }
+
   @Test
   void shouldReindexIfNoIndexStatusFound() {
     when(store.get(repository)).thenReturn(Optional.empty());
@@ -148,6 +610,145 @@ class IndexSyncWorkerTest {
     verify(indexer, never()).delete(any());
   }
 
+  @Test
+  void shouldUpdateIndexWithChangesetsFromHook() {
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset removed = new Changeset("40", 0L, Person.toPerson("trillian"), "removed commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    UpdatedChangesets changesets = UpdatedChangesets.of(List.of(changeset), List.of(removed), 10);
+
+    worker.ensureIndexIsUpToDate(changesets);
+
+    verify(indexer).delete(List.of("40"));
+    verify(indexer).storeDocuments(documentsCaptor.capture());
+    assertThat(documentsCaptor.getValue()).extracting(IndexedChangeset::getId).containsExactly("42");
+    verify(store).update(repository, "42");
+    verify(indexer, never()).deleteAll();
+    assertThat(meterRegistry.get("scm.commitsearch.update").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldReadChangesetsOfLargePushesInPages() throws IOException {
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset indexed = new Changeset("41", 0L, Person.toPerson("trillian"), "indexed commit");
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "first commit");
+    Changeset removed = new Changeset("40", 0L, Person.toPerson("trillian"), "removed commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset("41")).thenReturn(indexed);
+    when(logCommandBuilder.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset)));
+    UpdatedChangesets changesets = UpdatedChangesets.of(List.of(changeset), List.of(removed), 0);
+
+    worker.ensureIndexIsUpToDate(changesets);
+
+    verify(indexer).delete(List.of("40"));
+    verify(logCommandBuilder).setAncestorChangeset("41");
+    verify(indexer).documents(List.of(changeset));
+    verify(logCommandBuilder, never()).getChangeset("42");
+    verify(store).update(repository, "42");
+  }
+
+  @Test
+  void shouldCatchUpWithoutChangesetsFromHook() throws IOException {
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset indexed = new Changeset("41", 0L, Person.toPerson("trillian"), "indexed commit");
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "missed commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset("41")).thenReturn(indexed);
+    when(logCommandBuilder.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset)));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(logCommandBuilder).setAncestorChangeset("41");
+    verify(indexer).documents(List.of(changeset));
+    verify(indexer, never()).deleteAll();
+    verify(store).update(repository, "42");
+  }
+
+  @Test
+  void shouldCatchUpToIndexedRevisionIfAncestorsAreNotSupported() throws IOException {
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset indexed = new Changeset("41", 0L, Person.toPerson("trillian"), "indexed commit");
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "missed commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(service.isSupported(Command.BRANCHES)).thenReturn(true);
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.isSupported(Feature.INCOMING_REVISION)).thenReturn(false);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset("41")).thenReturn(indexed);
+    when(logCommandBuilder.getChangesets()).thenReturn(new ChangesetPagingResult(2, List.of(changeset, indexed)));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(logCommandBuilder, never()).setAncestorChangeset(any());
+    verify(indexer).documents(List.of(changeset));
+    verify(store).update(repository, "42");
+  }
+
+  @Test
+  void shouldReindexIfIndexedRevisionIsGone() throws IOException {
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "rewritten commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(service.isSupported(Command.LOG)).thenReturn(true);
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(logCommandBuilder.getChangeset("41")).thenReturn(null);
+    when(logCommandBuilder.getChangesets()).thenReturn(new ChangesetPagingResult(1, List.of(changeset)));
+
+    worker.ensureIndexIsUpToDate(null);
+
+    verify(indexer).deleteAll();
+    verify(logCommandBuilder, never()).setAncestorChangeset(any());
+    verify(store).update(repository, "42");
+  }
+
+  @Test
+  void shouldReindexIfTooManyChangesetsWereRemoved() {
+    configuration.setDeleteReindexThreshold(1);
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "first commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    UpdatedChangesets changesets = UpdatedChangesets.of(List.of(changeset), List.of(
+      new Changeset("40", 0L, Person.toPerson("trillian"), "removed commit"),
+      new Changeset("39", 0L, Person.toPerson("trillian"), "removed commit")
+    ), 10);
+
+    worker.ensureIndexIsUpToDate(changesets);
+
+    verify(indexer, never()).delete(any());
+    verify(indexer).deleteAll();
+    verify(store).update(repository, "42");
+  }
+
+  @Test
+  void shouldKeepPreviousDocumentsOnReindexForRemovedChangesetsInShadowMode() {
+    configuration.setDeleteReindexThreshold(1);
+    configuration.setShadowReindex(true);
+    configuration.setPageSize(0);
+    when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
+    Changeset changeset = new Changeset("42", 0L, Person.toPerson("trillian"), "first commit");
+    when(changesetsCommandBuilder.getLatestChangeset()).thenReturn(Optional.of(changeset));
+    when(changesetsCommandBuilder.getChangesets()).thenReturn(List.of(changeset));
+    when(service.getLogCommand()).thenReturn(logCommandBuilder);
+    when(searchEngine.forType(IndexedChangeset.class).search()).thenReturn(queryBuilder);
+    QueryResult result = PreviousGenerationTest.result(0);
+    when(queryBuilder.execute(anyString())).thenReturn(result);
+    UpdatedChangesets changesets = UpdatedChangesets.of(List.of(changeset), List.of(
+      new Changeset("40", 0L, Person.toPerson("trillian"), "removed commit"),
+      new Changeset("39", 0L, Person.toPerson("trillian"), "removed commit")
+    ), 10);
+
+    worker.ensureIndexIsUpToDate(changesets);
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).setGeneration(argThat(Objects::nonNull));
+    verify(store).update(repository, "42");
+  }
+
   @Test
   void shouldClearIndexIfNoChangesetFound() {
     when(store.get(repository)).thenReturn(Optional.of(new IndexStatus("41", Instant.now(), IndexedChangeset.VERSION)));
@@ -21,6 +21,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
@@ -33,6 +34,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -52,6 +54,16 @@ class IndexSyncerTest {
   private IndexSyncWorkerFactory syncWorkerFactory;
   @Mock
   private IndexSyncWorker worker;
+  @Spy
+  private IndexConfiguration configuration = new IndexConfiguration();
+  @Mock
+  private IndexMetrics metrics;
+  @Mock
+  private ConsistencySweep consistencySweep;
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Mock
+  private RepositoryIndexConfigStore configStore;
   @InjectMocks
   private IndexSyncer syncer;
 
@@ -80,4 +92,15 @@ class IndexSyncerTest {
 
     verify(worker, never()).ensureIndexIsUpToDate(changesets);
   }
+
+  @Test
+  void shouldSkipVerificationWithoutLogCommand() {
+    when(service.isSupported(Command.CHANGESETS)).thenReturn(true);
+    when(service.isSupported(Command.LOG)).thenReturn(false);
+
+    syncer.verify(index, repository);
+
+    verifyNoInteractions(consistencySweep);
+    verify(worker, never()).reIndex();
+  }
 }
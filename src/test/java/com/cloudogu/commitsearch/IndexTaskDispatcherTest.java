@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.search.SearchEngine;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("UnstableApiUsage")
+class IndexTaskDispatcherTest {
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+  private final Repository puzzle = RepositoryTestData.create42Puzzle();
+
+  @Mock
+  private AdministrationContext administrationContext;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private SearchEngine searchEngine;
+  @Mock
+  private IndexStatusStore indexStatusStore;
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+
+  private IndexTaskDispatcher dispatcher;
+
+  @BeforeEach
+  void initDispatcher() {
+    repository.setId("hog");
+    puzzle.setId("puzzle");
+    configuration.setLargeTasks(1);
+    configuration.setLargeRepositoryThreshold(1000);
+    dispatcher = new IndexTaskDispatcher(administrationContext, searchEngine, indexStatusStore, configuration);
+    lenient().doAnswer(ic -> {
+      PrivilegedAction action = ic.getArgument(0);
+      action.run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+  }
+
+  @Test
+  void shouldSubmitTaskWithTicket() {
+    IndexerTask task = new IndexerTask(repository, null);
+
+    dispatcher.submit(repository, task);
+
+    verify(searchEngine.forType(IndexedChangeset.class).forResource(repository)).update(task);
+    assertThat(task.getTicket()).isNotNull();
+  }
+
+  @Test
+  void shouldSubmitTasksOfSmallRepositoriesRightAway() {
+    IndexerTask first = new IndexerTask(repository, null);
+    IndexerTask second = new IndexerTask(repository, null);
+
+    dispatcher.submit(repository, first);
+    dispatcher.submit(repository, second);
+
+    assertThat(first.getTicket()).isNotNull();
+    assertThat(second.getTicket()).isNotNull().isNotEqualTo(first.getTicket());
+  }
+
+  @Test
+  void shouldIgnoreUnknownTickets() {
+    dispatcher.finished(null);
+    dispatcher.finished("unknown");
+
+    IndexerTask task = new IndexerTask(repository, null);
+    dispatcher.submit(repository, task);
+
+    assertThat(task.getTicket()).isNotNull();
+  }
+
+  @Test
+  void shouldHoldBackTasksOfLargeRepositoriesBeyondLimit() {
+    mockLargeRepository();
+    IndexerTask first = new IndexerTask(repository, null);
+    IndexerTask second = new IndexerTask(repository, null);
+
+    dispatcher.submit(repository, first);
+    dispatcher.submit(repository, second);
+
+    assertThat(first.getTicket()).isNotNull();
+    assertThat(second.getTicket()).isNull();
+    verify(searchEngine.forType(IndexedChangeset.class).forResource(repository), never()).update(second);
+
+    dispatcher.finished(first.getTicket());
+
+    assertThat(second.getTicket()).isNotNull();
+    verify(searchEngine.forType(IndexedChangeset.class).forResource(repository)).update(second);
+  }
+
+  @Test
+  void shouldDispatchPushesBeforeBulkTasks() {
+    mockLargeRepository();
+    IndexerTask running = new IndexerTask(repository, null, true);
+    IndexerTask startup = new IndexerTask(repository, null, true);
+    IndexerTask push = new IndexerTask(repository, null);
+
+    dispatcher.submit(repository, running);
+    dispatcher.submit(repository, startup);
+    dispatcher.submit(repository, push);
+    dispatcher.finished(running.getTicket());
+
+    assertThat(push.getTicket()).isNotNull();
+    assertThat(startup.getTicket()).isNull();
+  }
+
+  @Test
+  void shouldYieldWhilePushIsHeldBack() {
+    mockLargeRepository();
+    mockLargeRepository(puzzle);
+    IndexerTask reindex = new IndexerTask(repository, null, true);
+    dispatcher.submit(repository, reindex);
+
+    assertThat(dispatcher.shouldYield(repository)).isFalse();
+
+    IndexerTask push = new IndexerTask(puzzle, null);
+    dispatcher.submit(puzzle, push);
+
+    assertThat(dispatcher.shouldYield(repository)).isTrue();
+
+    dispatcher.finished(reindex.getTicket());
+    dispatcher.started(push.getTicket());
+
+    assertThat(dispatcher.shouldYield(repository)).isFalse();
+  }
+
+  @Test
+  void shouldYieldWhilePushWaitsForWorker() {
+    when(indexStatusStore.get(repository)).thenReturn(Optional.empty());
+    mockCompleteRepository(puzzle);
+    IndexerTask reindex = new IndexerTask(repository, null, true);
+    dispatcher.submit(repository, reindex);
+    dispatcher.started(reindex.getTicket());
+    IndexerTask push = new IndexerTask(puzzle, null);
+
+    dispatcher.submit(puzzle, push);
+
+    assertThat(dispatcher.shouldYield(repository)).isTrue();
+
+    dispatcher.started(push.getTicket());
+
+    assertThat(dispatcher.shouldYield(repository)).isFalse();
+  }
+
+  @Test
+  void shouldHoldBackBulkTasksOfSmallRepositoriesBeyondLimit() {
+    configuration.setSmallBulkTasks(1);
+    dispatcher = new IndexTaskDispatcher(administrationContext, searchEngine, indexStatusStore, configuration);
+    when(indexStatusStore.get(repository)).thenReturn(Optional.empty());
+    mockCompleteRepository(puzzle);
+    IndexerTask first = new IndexerTask(repository, null, true);
+    IndexerTask second = new IndexerTask(repository, null, true);
+    IndexerTask push = new IndexerTask(puzzle, null);
+
+    dispatcher.submit(repository, first);
+    dispatcher.submit(repository, second);
+    dispatcher.submit(puzzle, push);
+
+    assertThat(first.getTicket()).isNotNull();
+    assertThat(second.getTicket()).isNull();
+    // the push overtakes the held back bulk task
+    assertThat(push.getTicket()).isNotNull();
+
+    dispatcher.finished(push.getTicket());
+
+    assertThat(second.getTicket()).isNull();
+
+    dispatcher.finished(first.getTicket());
+
+    assertThat(second.getTicket()).isNotNull();
+  }
+
+  @Test
+  void shouldNotYieldForPushToSameRepository() {
+    mockLargeRepository();
+    dispatcher.submit(repository, new IndexerTask(repository, null, true));
+
+    dispatcher.submit(repository, new IndexerTask(repository, null));
+
+    assertThat(dispatcher.shouldYield(repository)).isFalse();
+  }
+
+  @Test
+  void shouldNotYieldForBulkTasks() {
+    when(indexStatusStore.get(repository)).thenReturn(Optional.empty());
+    IndexerTask task = new IndexerTask(repository, null);
+
+    assertThat(dispatcher.priority(repository, task)).isEqualTo(IndexTaskDispatcher.Priority.BULK);
+    assertThat(dispatcher.shouldYield(repository)).isFalse();
+  }
+
+  @Test
+  void shouldTreatStartupAndVerifyTasksAsBulk() {
+    assertThat(dispatcher.priority(repository, new IndexerTask(repository, null, true))).isEqualTo(IndexTaskDispatcher.Priority.BULK);
+    assertThat(dispatcher.priority(repository, IndexerTask.verify(repository))).isEqualTo(IndexTaskDispatcher.Priority.BULK);
+  }
+
+  @Test
+  void shouldTreatTasksForReindexingRepositoriesAsBulk() {
+    IndexStatus status = new IndexStatus(IndexStatus.EMPTY, Instant.now(), IndexedChangeset.VERSION);
+    status.setCheckpoint(new ReindexCheckpoint("3", Instant.now()));
+    when(indexStatusStore.get(repository)).thenReturn(Optional.of(status));
+
+    assertThat(dispatcher.priority(repository, new IndexerTask(repository, null))).isEqualTo(IndexTaskDispatcher.Priority.BULK);
+  }
+
+  @Test
+  void shouldTreatUnknownRepositoriesAsSmall() {
+    when(indexStatusStore.get(repository)).thenReturn(Optional.empty());
+
+    assertThat(dispatcher.isLarge(repository)).isFalse();
+  }
+
+  @Test
+  void shouldTreatAllRepositoriesAsSmallWithoutThreshold() {
+    configuration.setLargeRepositoryThreshold(0);
+
+    assertThat(dispatcher.isLarge(repository)).isFalse();
+  }
+
+  @Test
+  void shouldDropHeldBackTasksOnShutdown() {
+    mockLargeRepository();
+    IndexerTask running = new IndexerTask(repository, null, true);
+    IndexerTask waiting = new IndexerTask(repository, null, true);
+    dispatcher.submit(repository, running);
+    dispatcher.submit(repository, waiting);
+    dispatcher.started(running.getTicket());
+    configuration.setShutdownTimeout(0);
+
+    dispatcher.shutdown();
+    dispatcher.finished(running.getTicket());
+
+    assertThat(dispatcher.isStopping()).isTrue();
+    assertThat(waiting.getTicket()).isNull();
+  }
+
+  @Test
+  void shouldNotifyListenersOfDroppedTasks() {
+    mockLargeRepository();
+    List<IndexerTask> dropped = new ArrayList<>();
+    dispatcher.onDropped(dropped::add);
+    IndexerTask running = new IndexerTask(repository, null, true);
+    IndexerTask queued = new IndexerTask(repository, null, true);
+    IndexerTask waiting = new IndexerTask(repository, null, true);
+    IndexerTask late = new IndexerTask(repository, null, true);
+    dispatcher.submit(repository, running);
+    dispatcher.started(running.getTicket());
+    dispatcher.finished(running.getTicket());
+    dispatcher.submit(repository, queued);
+    dispatcher.submit(repository, waiting);
+    configuration.setShutdownTimeout(0);
+
+    dispatcher.shutdown();
+    dispatcher.submit(repository, late);
+
+    assertThat(dropped).containsExactlyInAnyOrder(queued, waiting, late);
+  }
+
+  @Test
+  void shouldNotWaitForTasksWhichHaveNotStarted() {
+    IndexerTask running = new IndexerTask(repository, null);
+    IndexerTask queued = new IndexerTask(repository, null);
+    dispatcher.submit(repository, running);
+    dispatcher.submit(repository, queued);
+    dispatcher.started(running.getTicket());
+
+    assertThat(dispatcher.awaitRunningTasks(10)).isFalse();
+
+    dispatcher.finished(running.getTicket());
+    long start = System.currentTimeMillis();
+    dispatcher.shutdown();
+
+    // the ticket of the queued task is released instead of waiting for the shutdown timeout
+    assertThat(System.currentTimeMillis() - start).isLessThan(TimeUnit.SECONDS.toMillis(configuration.getShutdownTimeout()));
+    assertThat(dispatcher.awaitRunningTasks(0)).isTrue();
+  }
+
+  @Test
+  void shouldWaitForRunningTasks() throws InterruptedException {
+    IndexerTask task = new IndexerTask(repository, null);
+    dispatcher.submit(repository, task);
+    dispatcher.started(task.getTicket());
+
+    assertThat(dispatcher.awaitRunningTasks(10)).isFalse();
+
+    Thread finisher = new Thread(() -> dispatcher.finished(task.getTicket()));
+    finisher.start();
+
+    assertThat(dispatcher.awaitRunningTasks(10_000)).isTrue();
+    finisher.join();
+  }
+
+  private void mockLargeRepository() {
+    mockLargeRepository(repository);
+  }
+
+  private void mockCompleteRepository(Repository repository) {
+    when(indexStatusStore.get(repository)).thenReturn(Optional.of(new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION)));
+  }
+
+  private void mockLargeRepository(Repository repository) {
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setCommitCount(1000);
+    when(indexStatusStore.get(repository)).thenReturn(Optional.of(status));
+  }
+}
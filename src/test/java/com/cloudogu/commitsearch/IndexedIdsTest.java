@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.search.QueryBuilder;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.cloudogu.commitsearch.PreviousGenerationTest.result;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("UnstableApiUsage")
+class IndexedIdsTest {
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private SearchEngine searchEngine;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private QueryBuilder<IndexedChangeset> queryBuilder;
+
+  private final List<List<String>> pages = new ArrayList<>();
+
+  private IndexedIds indexedIds;
+
+  @BeforeEach
+  void setUp() {
+    when(searchEngine.forType(IndexedChangeset.class).search()).thenReturn(queryBuilder);
+    indexedIds = new IndexedIds(searchEngine, repository);
+  }
+
+  @Test
+  void shouldReadSinglePage() {
+    when(queryBuilder.execute("*:*")).thenReturn(result(2, "1", "2"));
+
+    indexedIds.forEachPage("*:*", pages::add);
+
+    assertThat(pages).containsExactly(List.of("1", "2"));
+    verify(queryBuilder).filter(Repository.class, repository.getId());
+    verify(queryBuilder).limit(IndexedIds.PAGE_SIZE);
+    verify(queryBuilder, never()).start(0);
+  }
+
+  @Test
+  void shouldSplitRangeAtMedianInsteadOfPagingByOffset() {
+    String[] ids = IntStream.range(0, IndexedIds.PAGE_SIZE)
+      .mapToObj(i -> String.format("%04d", i))
+      .toArray(String[]::new);
+    String median = ids[IndexedIds.PAGE_SIZE / 2];
+    when(queryBuilder.execute("*:*")).thenReturn(result(IndexedIds.PAGE_SIZE + 1, ids));
+    when(queryBuilder.execute("+(*:*) +id:{* TO \"" + median + "\"]")).thenReturn(result(2, "0000", median));
+    when(queryBuilder.execute("+(*:*) +id:{\"" + median + "\" TO *]")).thenReturn(result(1, "9999"));
+
+    indexedIds.forEachPage("*:*", pages::add);
+
+    assertThat(pages).containsExactly(List.of("0000", median), List.of("9999"));
+  }
+
+  @Test
+  void shouldSkipEmptyRanges() {
+    when(queryBuilder.execute("*:*")).thenReturn(result(0));
+
+    indexedIds.forEachPage("*:*", pages::add);
+
+    assertThat(pages).isEmpty();
+  }
+}
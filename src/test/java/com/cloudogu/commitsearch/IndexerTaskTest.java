@@ -24,29 +24,239 @@ import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.search.Index;
 
+import java.time.Instant;
+import java.util.Optional;
+
 import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 @SuppressWarnings("UnstableApiUsage")
 class IndexerTaskTest {
 
   private final Repository repository = RepositoryTestData.create42Puzzle();
-  private final UpdatedChangesets changesets = new UpdatedChangesets(emptyList(), emptyList());
+  private final UpdatedChangesets changesets = UpdatedChangesets.of(emptyList(), emptyList(), 10);
   private final IndexerTask task = new IndexerTask(repository, changesets);
 
   @Mock
   private Index<IndexedChangeset> index;
   @Mock
   private IndexSyncer syncer;
+  @Mock
+  private StartupIndexScheduler startupIndexScheduler;
+  @Mock
+  private IndexStatusStore indexStatusStore;
+  @Mock
+  private IndexMetrics metrics;
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Mock
+  private ConsistencySweep consistencySweep;
 
   @Test
   void shouldTriggerSyncerToUpdateIndex() {
     task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setPendingUpdates(2);
+    when(indexStatusStore.get(repository)).thenReturn(Optional.of(status));
 
     task.update(index);
 
     verify(syncer).ensureIndexIsUpToDate(index, repository, changesets);
+    // the updates of earlier tasks, which failed or were dropped, are covered, too
+    verify(indexStatusStore).updatesProcessed(repository, 2);
+    verify(metrics).taskStarted(anyLong());
+  }
+
+  @Test
+  void shouldNotifyStartupSchedulerAfterStartupTask() {
+    IndexerTask startupTask = new IndexerTask(repository, null, true);
+    startupTask.setSyncer(syncer);
+    startupTask.setMetrics(metrics);
+    startupTask.setDispatcher(dispatcher);
+    startupTask.setStartupIndexScheduler(startupIndexScheduler);
+    startupTask.setIndexStatusStore(indexStatusStore);
+
+    startupTask.update(index);
+
+    verify(syncer).ensureIndexIsUpToDate(index, repository, null);
+    verify(startupIndexScheduler).finished(repository);
+  }
+
+  @Test
+  void shouldProcessLeftoverUpdatesWithStartupTask() {
+    IndexerTask startupTask = new IndexerTask(repository, null, true);
+    startupTask.setSyncer(syncer);
+    startupTask.setMetrics(metrics);
+    startupTask.setDispatcher(dispatcher);
+    startupTask.setStartupIndexScheduler(startupIndexScheduler);
+    startupTask.setIndexStatusStore(indexStatusStore);
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setPendingUpdates(3);
+    when(indexStatusStore.get(repository)).thenReturn(Optional.of(status));
+
+    startupTask.update(index);
+
+    verify(indexStatusStore).updatesProcessed(repository, 3);
+  }
+
+  @Test
+  void shouldNotNotifyStartupSchedulerAfterHookTask() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setStartupIndexScheduler(startupIndexScheduler);
+    task.setIndexStatusStore(indexStatusStore);
+
+    task.update(index);
+
+    verifyNoInteractions(startupIndexScheduler);
+  }
+
+  @Test
+  void shouldNotMarkUpdateAsProcessedOnFailure() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    doThrow(new IllegalStateException("failed")).when(syncer).ensureIndexIsUpToDate(index, repository, changesets);
+
+    assertThrows(IllegalStateException.class, () -> task.update(index));
+
+    verify(indexStatusStore, never()).updatesProcessed(eq(repository), anyInt());
+    verify(indexStatusStore).failed(repository, "java.lang.IllegalStateException: failed");
+    verify(indexStatusStore, never()).succeeded(repository);
+  }
+
+  @Test
+  void shouldSkipQuarantinedRepository() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    task.setTicket("42");
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setFailures(2);
+    status.setNextRetry(Instant.now().plusSeconds(60));
+    when(indexStatusStore.get(repository)).thenReturn(Optional.of(status));
+
+    task.update(index);
+
+    verifyNoInteractions(syncer);
+    verify(metrics).quarantineSkipped();
+    verify(dispatcher).started("42");
+    verify(dispatcher).finished("42");
+  }
+
+  @Test
+  void shouldCatchUpOnRetryAfterQuarantine() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    IndexStatus status = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    status.setFailures(2);
+    status.setNextRetry(Instant.now().minusSeconds(1));
+    when(indexStatusStore.get(repository)).thenReturn(Optional.of(status));
+
+    task.update(index);
+
+    verify(syncer).ensureIndexIsUpToDate(index, repository, null);
+    verify(indexStatusStore).succeeded(repository);
   }
 
+  @Test
+  void shouldSubmitContinuationIfPaused() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    task.setTicket("42");
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint("42", Instant.now());
+    doThrow(new IndexingPausedException("push is waiting", checkpoint)).when(syncer).ensureIndexIsUpToDate(index, repository, changesets);
+
+    task.update(index);
+
+    verify(indexStatusStore).checkpoint(repository, checkpoint);
+    verify(dispatcher).submit(eq(repository), argThat(continuation -> continuation.getChangesets() == null));
+    verify(dispatcher).finished("42");
+    verify(indexStatusStore, never()).updatesProcessed(eq(repository), anyInt());
+  }
+
+  @Test
+  void shouldNotSubmitContinuationOnShutdown() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    task.setTicket("42");
+    doThrow(new IndexingPausedException("shutdown", new ReindexCheckpoint("42", Instant.now())))
+      .when(syncer).ensureIndexIsUpToDate(index, repository, changesets);
+    when(dispatcher.isStopping()).thenReturn(false, true);
+
+    task.update(index);
+
+    verify(dispatcher, never()).submit(any(), any());
+    verify(indexStatusStore, never()).checkpoint(any(), any());
+    verify(dispatcher).finished("42");
+    verify(indexStatusStore, never()).updatesProcessed(eq(repository), anyInt());
+  }
+
+  @Test
+  void shouldSkipTaskOnShutdown() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    task.setTicket("42");
+    when(dispatcher.isStopping()).thenReturn(true);
+
+    task.update(index);
+
+    verifyNoInteractions(syncer, indexStatusStore);
+    verify(dispatcher).finished("42");
+  }
+
+  @Test
+  void shouldReleaseDispatcherTicket() {
+    task.setSyncer(syncer);
+    task.setMetrics(metrics);
+    task.setDispatcher(dispatcher);
+    task.setIndexStatusStore(indexStatusStore);
+    task.setTicket("42");
+    doThrow(new IllegalStateException("failed")).when(syncer).ensureIndexIsUpToDate(index, repository, changesets);
+
+    assertThrows(IllegalStateException.class, () -> task.update(index));
+
+    verify(dispatcher).finished("42");
+  }
+
+  @Test
+  void shouldVerifyIndex() {
+    IndexerTask verifyTask = IndexerTask.verify(repository);
+    verifyTask.setSyncer(syncer);
+    verifyTask.setMetrics(metrics);
+    verifyTask.setDispatcher(dispatcher);
+    verifyTask.setConsistencySweep(consistencySweep);
+    verifyTask.setIndexStatusStore(indexStatusStore);
+
+    verifyTask.update(index);
+
+    verify(syncer).verify(index, repository);
+    verify(consistencySweep).finished(repository);
+    verify(indexStatusStore, never()).updatesProcessed(eq(repository), anyInt());
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.cloudogu.commitsearch;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -23,22 +24,30 @@ import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Modifications;
 import sonia.scm.repository.Person;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.ModificationsCommandBuilder;
 import sonia.scm.repository.api.RepositoryService;
 import sonia.scm.search.Id;
 import sonia.scm.search.Index;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -55,13 +64,18 @@ class IndexerTest {
   private Index<IndexedChangeset> index;
   @Mock
   private RepositoryService service;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private ModificationsCommandBuilder modificationsCommand;
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
   private Indexer indexer;
 
   @BeforeEach
   void initService() {
     lenient().when(service.getRepository()).thenReturn(repository);
-    indexer = new Indexer(index, service);
+    indexer = new Indexer(index, service, configuration, new IndexMetrics(meterRegistry));
   }
 
   @Test
@@ -105,6 +119,52 @@ class IndexerTest {
     }));
   }
 
+  @Test
+  void shouldStopBeforeNextDocumentOnShutdown() {
+    List<Changeset> changesets = List.of(
+      new Changeset("1", 0L, Person.toPerson("trillian"), "one"),
+      new Changeset("2", 0L, Person.toPerson("trillian"), "two"),
+      new Changeset("3", 0L, Person.toPerson("trillian"), "three")
+    );
+    AtomicBoolean stopping = new AtomicBoolean();
+    indexer.setStopping(stopping::get);
+    doAnswer(invocation -> {
+      stopping.set(true);
+      return null;
+    }).when(index).store(eq(id("1")), any(), any());
+
+    assertThatThrownBy(() -> indexer.store(changesets)).isInstanceOf(IndexingPausedException.class);
+
+    verify(index).store(eq(id("1")), any(), any());
+    verify(index, never()).store(eq(id("2")), any(), any());
+    verify(index, never()).store(eq(id("3")), any(), any());
+  }
+
+  @Test
+  void shouldStoreAllChangesetsAndCountThem() {
+    List<Changeset> changesets = List.of(
+      new Changeset("1", 0L, Person.toPerson("trillian"), "one"),
+      new Changeset("2", 0L, Person.toPerson("trillian"), "two"),
+      new Changeset("3", 0L, Person.toPerson("trillian"), "three")
+    );
+
+    indexer.store(changesets);
+
+    verify(index).store(eq(id("1")), any(), any());
+    verify(index).store(eq(id("2")), any(), any());
+    verify(index).store(eq(id("3")), any(), any());
+    assertThat(meterRegistry.get("scm.commitsearch.commits.indexed").counter().count()).isEqualTo(3);
+  }
+
+  @Test
+  void shouldStoreDocuments() {
+    IndexedChangeset document = new IndexedChangeset(new Changeset("42", 0L, Person.toPerson("trillian"), "initial commit"));
+
+    indexer.storeDocuments(List.of(document));
+
+    verify(index).store(id("42"), "repository:read:" + repository.getId(), document);
+  }
+
   @Test
   void shouldDeleteAll() {
     indexer.deleteAll();
@@ -117,13 +177,62 @@ class IndexerTest {
     Index.Deleter<IndexedChangeset> deleter = mock(Index.Deleter.class);
     when(index.delete()).thenReturn(deleter);
 
-    indexer.delete(Arrays.asList(
-      new Changeset("a", 0L,  Person.toPerson("scmadmin")),
-      new Changeset("b", 0L,  Person.toPerson("scmadmin"))
-    ));
+    indexer.delete(Arrays.asList("a", "b"));
 
     verify(deleter).byId(id("a"));
     verify(deleter).byId(id("b"));
+    assertThat(meterRegistry.get("scm.commitsearch.commits.deleted").counter().count()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldNotReadChangedPathsIfNotEnabled() {
+    indexer.store(List.of(new Changeset("42", 0L, Person.toPerson("trillian"), "initial commit")));
+
+    verify(service, never()).getModificationsCommand();
+    verify(index).store(eq(id("42")), any(), argThat(changeset -> changeset.getPaths() == null));
+  }
+
+  @Test
+  void shouldStoreLimitedChangedPathsIfEnabled() throws IOException {
+    configuration.setChangedPathsLimit(2);
+    when(service.isSupported(Command.MODIFICATIONS)).thenReturn(true);
+    when(service.getModificationsCommand()).thenReturn(modificationsCommand);
+    Modifications modifications = mock(Modifications.class);
+    when(modifications.getEffectedPaths()).thenReturn(Stream.of("pom.xml", "src/Main.java", "pom.xml", "README.md"));
+    when(modificationsCommand.getModifications()).thenReturn(modifications);
+    indexer = new Indexer(index, service, configuration, new IndexMetrics(meterRegistry), true);
+
+    indexer.store(List.of(new Changeset("42", 0L, Person.toPerson("trillian"), "initial commit")));
+
+    verify(modificationsCommand).revision("42");
+    verify(index).store(eq(id("42")), any(), argThat(changeset -> "pom.xml\nsrc/Main.java".equals(changeset.getPaths())));
+  }
+
+  @Test
+  void shouldReadChangedPathsWhileMappingDocuments() throws IOException {
+    when(service.isSupported(Command.MODIFICATIONS)).thenReturn(true);
+    when(service.getModificationsCommand()).thenReturn(modificationsCommand);
+    Modifications modifications = mock(Modifications.class);
+    when(modifications.getEffectedPaths()).thenReturn(Stream.of("pom.xml"));
+    when(modificationsCommand.getModifications()).thenReturn(modifications);
+    indexer = new Indexer(index, service, configuration, new IndexMetrics(meterRegistry), true);
+
+    List<IndexedChangeset> documents = indexer.documents(List.of(new Changeset("42", 0L, Person.toPerson("trillian"), "initial commit")));
+    int stored = indexer.storeDocuments(documents);
+
+    assertThat(documents).extracting(IndexedChangeset::getPaths).containsExactly("pom.xml");
+    assertThat(stored).isEqualTo(1);
+    verify(service).getModificationsCommand();
+  }
+
+  @Test
+  void shouldMarkDocumentsWithGeneration() {
+    IndexedChangeset document = new IndexedChangeset(new Changeset("42", 0L, Person.toPerson("trillian"), "initial commit"));
+
+    indexer.setGeneration("1");
+    indexer.storeDocuments(List.of(document));
+
+    assertThat(document.getGeneration()).isEqualTo("1");
   }
 
   private Id<IndexedChangeset> id(String a) {
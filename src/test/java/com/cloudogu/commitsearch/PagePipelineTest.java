@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PagePipelineTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final IndexMetrics metrics = new IndexMetrics(meterRegistry);
+
+  private final List<Integer> written = new ArrayList<>();
+
+  @Test
+  void shouldPassPagesInOrder() {
+    new PagePipeline<Integer>(2, metrics).run(pages(10), written::add);
+
+    assertThat(written).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    assertThat(meterRegistry.get("scm.commitsearch.pipeline.queue").gauge().value()).isZero();
+  }
+
+  @Test
+  void shouldReadOnSeparateThread() {
+    AtomicReference<Thread> readerThread = new AtomicReference<>();
+
+    new PagePipeline<Integer>(2, metrics).run(sink -> {
+      readerThread.set(Thread.currentThread());
+      sink.accept(1);
+    }, written::add);
+
+    assertThat(readerThread.get()).isNotSameAs(Thread.currentThread());
+    assertThat(written).containsExactly(1);
+  }
+
+  @Test
+  void shouldReadOnCallingThreadWithoutReadAhead() {
+    AtomicReference<Thread> readerThread = new AtomicReference<>();
+
+    new PagePipeline<Integer>(0, metrics).run(sink -> {
+      readerThread.set(Thread.currentThread());
+      sink.accept(1);
+    }, written::add);
+
+    assertThat(readerThread.get()).isSameAs(Thread.currentThread());
+  }
+
+  @Test
+  void shouldNotReadMoreThanCapacityAhead() {
+    AtomicInteger produced = new AtomicInteger();
+    AtomicInteger producedWhileWriting = new AtomicInteger();
+
+    new PagePipeline<Integer>(1, metrics).run(
+      sink -> {
+        for (int i = 0; i < 10; i++) {
+          produced.incrementAndGet();
+          sink.accept(i);
+        }
+      },
+      page -> {
+        if (page == 0) {
+          sleep();
+          producedWhileWriting.set(produced.get());
+        }
+      }
+    );
+
+    // the page in work, one page in the queue and one page waiting to be put into the queue
+    assertThat(producedWhileWriting.get()).isLessThanOrEqualTo(3);
+    assertThat(produced.get()).isEqualTo(10);
+  }
+
+  @Test
+  void shouldPropagateReaderFailure() {
+    PagePipeline<Integer> pipeline = new PagePipeline<>(2, metrics);
+
+    assertThatThrownBy(() -> pipeline.run(sink -> {
+      sink.accept(1);
+      throw new IllegalStateException("failed to read");
+    }, written::add)).hasMessage("failed to read");
+    assertThat(written).containsExactly(1);
+  }
+
+  @Test
+  void shouldStopReaderIfWriterFails() {
+    PagePipeline<Integer> pipeline = new PagePipeline<>(1, metrics);
+
+    assertThatThrownBy(() -> pipeline.run(pages(1000), page -> {
+      throw new IllegalStateException("failed to write");
+    })).hasMessage("failed to write");
+    assertThat(meterRegistry.get("scm.commitsearch.pipeline.queue").gauge().value()).isZero();
+  }
+
+  @Test
+  void shouldStopReaderWithoutInterruptAndWaitForIt() {
+    PagePipeline<Integer> pipeline = new PagePipeline<>(1, metrics);
+    AtomicReference<Thread> readerThread = new AtomicReference<>();
+    AtomicBoolean interrupted = new AtomicBoolean();
+
+    assertThatThrownBy(() -> pipeline.run(sink -> {
+      readerThread.set(Thread.currentThread());
+      try {
+        pages(1000).accept(sink);
+      } finally {
+        interrupted.set(Thread.currentThread().isInterrupted());
+      }
+    }, page -> {
+      throw new IllegalStateException("failed to write");
+    })).hasMessage("failed to write");
+
+    assertThat(readerThread.get().isAlive()).isFalse();
+    assertThat(interrupted.get()).isFalse();
+    assertThat(meterRegistry.get("scm.commitsearch.pipeline.queue").gauge().value()).isZero();
+  }
+
+  private static Consumer<Consumer<Integer>> pages(int count) {
+    return sink -> {
+      for (int i = 0; i < count; i++) {
+        sink.accept(i);
+      }
+    };
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(100);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.search.Hit;
+import sonia.scm.search.QueryBuilder;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("UnstableApiUsage")
+class PreviousGenerationTest {
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private SearchEngine searchEngine;
+  @Mock(answer = Answers.RETURNS_SELF)
+  private QueryBuilder<IndexedChangeset> queryBuilder;
+
+  private PreviousGeneration previousGeneration;
+
+  @BeforeEach
+  void setUp() {
+    when(searchEngine.forType(IndexedChangeset.class).search()).thenReturn(queryBuilder);
+    previousGeneration = new PreviousGeneration(searchEngine, repository);
+  }
+
+  @Test
+  void shouldFindDocumentsOfOtherGenerations() {
+    QueryResult result = result(2, "1", "2");
+    when(queryBuilder.execute("*:* -generation:\"42\"")).thenReturn(result);
+    List<List<String>> pages = new ArrayList<>();
+
+    previousGeneration.forEachPage("42", pages::add);
+
+    assertThat(pages).containsExactly(List.of("1", "2"));
+    verify(queryBuilder).filter(Repository.class, repository.getId());
+  }
+
+  @Test
+  void shouldPageByIdRange() {
+    String query = "*:* -generation:\"42\"";
+    QueryResult all = result(IndexedIds.PAGE_SIZE + 1, "3", "1", "2");
+    when(queryBuilder.execute(query)).thenReturn(all);
+    QueryResult lower = result(2, "1", "2");
+    when(queryBuilder.execute("+(" + query + ") +id:{* TO \"2\"]")).thenReturn(lower);
+    QueryResult upper = result(1, "3");
+    when(queryBuilder.execute("+(" + query + ") +id:{\"2\" TO *]")).thenReturn(upper);
+    List<List<String>> pages = new ArrayList<>();
+
+    previousGeneration.forEachPage("42", pages::add);
+
+    assertThat(pages).containsExactly(List.of("1", "2"), List.of("3"));
+    verify(queryBuilder, never()).start(anyInt());
+  }
+
+  static QueryResult result(long totalHits, String... ids) {
+    List<Hit> hits = Arrays.stream(ids)
+      .map(id -> {
+        Hit hit = mock(Hit.class);
+        when(hit.getFields()).thenReturn(Map.of("id", new Hit.ValueField(id)));
+        return hit;
+      })
+      .collect(Collectors.toList());
+    QueryResult result = mock(QueryResult.class);
+    when(result.getHits()).thenReturn(hits);
+    when(result.getTotalHits()).thenReturn(totalHits);
+    return result;
+  }
+}
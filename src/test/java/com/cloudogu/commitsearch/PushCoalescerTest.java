@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Person;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class PushCoalescerTest {
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Mock
+  private IndexStatusStore indexStatusStore;
+  @Mock
+  private ScheduledExecutorService executor;
+  @Captor
+  private ArgumentCaptor<Runnable> flushCaptor;
+  @Captor
+  private ArgumentCaptor<IndexerTask> taskCaptor;
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+
+  private PushCoalescer coalescer;
+
+  @BeforeEach
+  void initCoalescer() {
+    repository.setId("hog");
+    configuration.setPushCoalesceWindow(500);
+    coalescer = new PushCoalescer(dispatcher, indexStatusStore, configuration, executor);
+  }
+
+  @Test
+  void shouldSubmitMergedChangesetsAfterWindow() {
+    Changeset one = changeset("1");
+    Changeset two = changeset("2");
+
+    coalescer.submit(repository, UpdatedChangesets.of(List.of(one), emptyList(), 10));
+    coalescer.submit(repository, UpdatedChangesets.of(List.of(two), emptyList(), 10));
+
+    verify(executor).schedule(flushCaptor.capture(), eq(500L), eq(TimeUnit.MILLISECONDS));
+    verifyNoInteractions(dispatcher);
+
+    flushCaptor.getValue().run();
+
+    verify(indexStatusStore, times(1)).updateRequested(repository);
+    verify(dispatcher).submit(eq(repository), taskCaptor.capture());
+    assertThat(taskCaptor.getValue().getChangesets().getAddedIds()).containsExactly("1", "2");
+  }
+
+  @Test
+  void shouldReadChangesFromRepositoryIfAnyPushCameWithoutChangesets() {
+    coalescer.submit(repository, UpdatedChangesets.of(List.of(changeset("1")), emptyList(), 10));
+    coalescer.submit(repository, null);
+
+    verify(executor).schedule(flushCaptor.capture(), eq(500L), eq(TimeUnit.MILLISECONDS));
+    flushCaptor.getValue().run();
+
+    verify(dispatcher).submit(eq(repository), taskCaptor.capture());
+    assertThat(taskCaptor.getValue().getChangesets()).isNull();
+  }
+
+  @Test
+  void shouldSubmitImmediatelyWithoutWindow() {
+    configuration.setPushCoalesceWindow(0);
+
+    coalescer.submit(repository, UpdatedChangesets.of(List.of(changeset("1")), emptyList(), 10));
+
+    verifyNoInteractions(executor);
+    verify(indexStatusStore).updateRequested(repository);
+    verify(dispatcher).submit(eq(repository), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldShutdownExecutor() {
+    coalescer.shutdown();
+
+    verify(executor).shutdownNow();
+  }
+
+  private Changeset changeset(String id) {
+    return new Changeset(id, 0L, Person.toPerson("trillian"), "commit " + id);
+  }
+}
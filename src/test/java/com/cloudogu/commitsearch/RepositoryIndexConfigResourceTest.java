@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.commitsearch;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.NotFoundException;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+
+import jakarta.ws.rs.core.Response;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RepositoryIndexConfigResourceTest {
+
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private RepositoryIndexConfigStore configStore;
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Mock
+  private Subject subject;
+
+  @InjectMocks
+  private RepositoryIndexConfigResource resource;
+
+  @BeforeEach
+  void bindSubject() {
+    heartOfGold.setId("hog");
+    heartOfGold.setNamespace("hitchhiker");
+    ThreadContext.bind(subject);
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldReturnConfig() {
+    mockRepository();
+    when(configStore.get(heartOfGold)).thenReturn(new RepositoryIndexConfig(true));
+
+    RepositoryIndexConfig config = resource.get("hitchhiker", heartOfGold.getName());
+
+    assertThat(config.isChangedPaths()).isTrue();
+  }
+
+  @Test
+  void shouldRewriteDocumentsIfChangedPathsWereEnabled() {
+    mockRepository();
+
+    Response response = resource.set("hitchhiker", heartOfGold.getName(), new RepositoryIndexConfig(true));
+
+    assertThat(response.getStatus()).isEqualTo(204);
+    verify(configStore).set(eq(heartOfGold), any(RepositoryIndexConfig.class));
+    verify(dispatcher).submit(eq(heartOfGold), any(IndexerTask.class));
+  }
+
+  @Test
+  void shouldNotRewriteDocumentsIfChangedPathsAreUnchanged() {
+    mockRepository();
+    when(configStore.isChangedPaths(heartOfGold)).thenReturn(true);
+
+    resource.set("hitchhiker", heartOfGold.getName(), new RepositoryIndexConfig(true));
+
+    verify(configStore).set(eq(heartOfGold), any(RepositoryIndexConfig.class));
+    verify(dispatcher, never()).submit(any(), any());
+  }
+
+  @Test
+  void shouldRequireModifyPermission() {
+    mockRepository();
+    doThrow(new AuthorizationException("not allowed")).when(subject).checkPermission("repository:modify:hog");
+
+    RepositoryIndexConfig config = new RepositoryIndexConfig(true);
+    assertThatThrownBy(() -> resource.set("hitchhiker", heartOfGold.getName(), config))
+      .isInstanceOf(AuthorizationException.class);
+    verify(configStore, never()).set(any(), any());
+    verifyNoInteractions(dispatcher);
+  }
+
+  @Test
+  void shouldFailForUnknownRepository() {
+    RepositoryIndexConfig config = new RepositoryIndexConfig(true);
+    assertThatThrownBy(() -> resource.set("hitchhiker", "unknown", config))
+      .isInstanceOf(NotFoundException.class);
+    verifyNoInteractions(configStore, dispatcher);
+  }
+
+  private void mockRepository() {
+    when(repositoryManager.get(new NamespaceAndName("hitchhiker", heartOfGold.getName()))).thenReturn(heartOfGold);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StartupIndexSchedulerTest {
+
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+  private final Repository puzzle = RepositoryTestData.create42Puzzle();
+  private final Repository restaurant = RepositoryTestData.createRestaurantAtTheEndOfTheUniverse();
+
+  @Mock
+  private IndexTaskDispatcher dispatcher;
+  @Mock
+  private IndexStatusStore indexStatusStore;
+  @Mock
+  private ScheduledExecutorService executor;
+  @Mock
+  private IndexMetrics metrics;
+
+  private final IndexConfiguration configuration = new IndexConfiguration();
+
+  private StartupIndexScheduler scheduler;
+
+  @BeforeEach
+  void initScheduler() {
+    heartOfGold.setId("hog");
+    puzzle.setId("puzzle");
+    restaurant.setId("restaurant");
+    configuration.setStartupDelay(30);
+    configuration.setStartupConcurrency(2);
+    scheduler = new StartupIndexScheduler(dispatcher, indexStatusStore, configuration, metrics, executor);
+  }
+
+  @Test
+  void shouldPrioritizeNeverIndexedAndRecentlyUpdatedRepositories() {
+    when(indexStatusStore.get(heartOfGold))
+      .thenReturn(Optional.of(new IndexStatus("1", Instant.ofEpochSecond(100), IndexedChangeset.VERSION)));
+    when(indexStatusStore.get(puzzle))
+      .thenReturn(Optional.of(new IndexStatus("2", Instant.ofEpochSecond(200), IndexedChangeset.VERSION)));
+    when(indexStatusStore.get(restaurant)).thenReturn(Optional.empty());
+
+    List<Repository> ordered = scheduler.prioritize(List.of(heartOfGold, puzzle, restaurant));
+
+    assertThat(ordered).containsExactly(restaurant, puzzle, heartOfGold);
+  }
+
+  @Test
+  void shouldTreatOutdatedVersionAsNeverIndexed() {
+    when(indexStatusStore.get(heartOfGold))
+      .thenReturn(Optional.of(new IndexStatus("1", Instant.ofEpochSecond(100), IndexedChangeset.VERSION)));
+    when(indexStatusStore.get(puzzle))
+      .thenReturn(Optional.of(new IndexStatus("2", Instant.ofEpochSecond(200), IndexedChangeset.VERSION - 1)));
+
+    List<Repository> ordered = scheduler.prioritize(List.of(heartOfGold, puzzle));
+
+    assertThat(ordered).containsExactly(puzzle, heartOfGold);
+  }
+
+  @Test
+  void shouldSubmitAfterConfiguredDelay() {
+    when(indexStatusStore.get(any())).thenReturn(Optional.empty());
+    doAnswer(ic -> {
+      Runnable runnable = ic.getArgument(0);
+      runnable.run();
+      return null;
+    }).when(executor).schedule(any(Runnable.class), eq(30L), eq(TimeUnit.SECONDS));
+
+    scheduler.schedule(List.of(heartOfGold, puzzle));
+
+    verify(dispatcher).submit(eq(heartOfGold), any(IndexerTask.class));
+    verify(dispatcher).submit(eq(puzzle), any(IndexerTask.class));
+    verify(metrics).startupPending(2);
+    verify(metrics, times(2)).startupSubmitted();
+  }
+
+  @Test
+  void shouldSubmitRequestedRepositoriesWithoutDelay() {
+    doAnswer(ic -> {
+      Runnable runnable = ic.getArgument(0);
+      runnable.run();
+      return null;
+    }).when(executor).execute(any(Runnable.class));
+
+    scheduler.submit(List.of(heartOfGold, puzzle));
+
+    verify(dispatcher).submit(eq(heartOfGold), argThat(IndexerTask::isStartup));
+    verify(dispatcher).submit(eq(puzzle), argThat(IndexerTask::isStartup));
+    verify(metrics, never()).startupSubmitted();
+  }
+
+  @Test
+  void shouldShutdownExecutor() {
+    scheduler.shutdown();
+
+    verify(executor).shutdownNow();
+  }
+
+  @Test
+  void shouldSkipUnchangedRepositories() {
+    IndexStatus upToDate = new IndexStatus("1", Instant.now(), IndexedChangeset.VERSION);
+    heartOfGold.setLastModified(upToDate.getLastUpdate().minusSeconds(60).toEpochMilli());
+    when(indexStatusStore.get(heartOfGold)).thenReturn(Optional.of(upToDate));
+    IndexStatus pending = new IndexStatus("2", Instant.now(), IndexedChangeset.VERSION);
+    pending.setPendingUpdates(1);
+    when(indexStatusStore.get(puzzle)).thenReturn(Optional.of(pending));
+    IndexStatus modified = new IndexStatus("3", Instant.now(), IndexedChangeset.VERSION);
+    restaurant.setLastModified(modified.getLastUpdate().plusSeconds(60).toEpochMilli());
+    when(indexStatusStore.get(restaurant)).thenReturn(Optional.of(modified));
+    doAnswer(ic -> {
+      Runnable runnable = ic.getArgument(0);
+      runnable.run();
+      return null;
+    }).when(executor).schedule(any(Runnable.class), eq(30L), eq(TimeUnit.SECONDS));
+    configuration.setStartupConcurrency(3);
+    scheduler = new StartupIndexScheduler(dispatcher, indexStatusStore, configuration, metrics, executor);
+
+    scheduler.schedule(List.of(heartOfGold, puzzle, restaurant));
+
+    verify(dispatcher, never()).submit(eq(heartOfGold), any(IndexerTask.class));
+    verify(dispatcher).submit(eq(puzzle), any(IndexerTask.class));
+    verify(dispatcher).submit(eq(restaurant), any(IndexerTask.class));
+  }
+}
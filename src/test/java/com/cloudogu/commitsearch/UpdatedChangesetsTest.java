@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Person;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpdatedChangesetsTest {
+
+  private final Changeset one = changeset("1");
+  private final Changeset two = changeset("2");
+  private final Changeset three = changeset("3");
+
+  @Test
+  void shouldMapDocumentsOfSmallPushes() {
+    UpdatedChangesets changesets = UpdatedChangesets.of(List.of(one, two), List.of(three), 2);
+
+    assertThat(changesets.getAddedIds()).containsExactly("1", "2");
+    assertThat(changesets.getRemovedIds()).containsExactly("3");
+    assertThat(changesets.getDocuments()).containsOnlyKeys("1", "2");
+    assertThat(changesets.getDocuments().get("1").getDescription()).isEqualTo("commit 1");
+    assertThat(changesets.hasMissingDocuments()).isFalse();
+  }
+
+  @Test
+  void shouldPassOnlyIdsOfLargePushes() {
+    UpdatedChangesets changesets = UpdatedChangesets.of(List.of(one, two, three), emptyList(), 2);
+
+    assertThat(changesets.getAddedIds()).containsExactly("1", "2", "3");
+    assertThat(changesets.getDocuments()).isEmpty();
+    assertThat(changesets.hasMissingDocuments()).isTrue();
+  }
+
+  @Test
+  void shouldUniteAddedChangesets() {
+    UpdatedChangesets merged = UpdatedChangesets.of(List.of(one), emptyList(), 10)
+      .merge(UpdatedChangesets.of(List.of(two, one), emptyList(), 10));
+
+    assertThat(merged.getAddedIds()).containsExactly("1", "2");
+    assertThat(merged.getRemovedIds()).isEmpty();
+    assertThat(merged.getDocuments()).containsOnlyKeys("1", "2");
+  }
+
+  @Test
+  void shouldCancelAddedThenRemovedChangesets() {
+    UpdatedChangesets merged = UpdatedChangesets.of(List.of(one, two), emptyList(), 10)
+      .merge(UpdatedChangesets.of(List.of(three), List.of(two), 10));
+
+    assertThat(merged.getAddedIds()).containsExactly("1", "3");
+    assertThat(merged.getRemovedIds()).isEmpty();
+    assertThat(merged.getDocuments()).containsOnlyKeys("1", "3");
+  }
+
+  @Test
+  void shouldStoreRemovedThenAddedChangesets() {
+    UpdatedChangesets merged = UpdatedChangesets.of(emptyList(), List.of(one, two), 10)
+      .merge(UpdatedChangesets.of(List.of(one), emptyList(), 10));
+
+    assertThat(merged.getAddedIds()).containsExactly("1");
+    assertThat(merged.getRemovedIds()).containsExactly("2");
+  }
+
+  private static Changeset changeset(String id) {
+    return new Changeset(id, 0L, Person.toPerson("trillian"), "commit " + id);
+  }
+}
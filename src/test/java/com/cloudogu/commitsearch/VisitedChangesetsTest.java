@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.commitsearch;
+
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Person;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisitedChangesetsTest {
+
+  private final VisitedChangesets visited = new VisitedChangesets();
+
+  @Test
+  void shouldAddIdOnlyOnce() {
+    assertThat(visited.add("42")).isTrue();
+    assertThat(visited.add("42")).isFalse();
+    assertThat(visited.size()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldContainVisitedIds() {
+    visited.add("42");
+
+    assertThat(visited.contains("42")).isTrue();
+    assertThat(visited.contains("21")).isFalse();
+  }
+
+  @Test
+  void shouldKeepIdsWhenGrowing() {
+    for (int i = 0; i < 10_000; i++) {
+      assertThat(visited.add(String.format("%040x", i))).isTrue();
+    }
+    for (int i = 0; i < 10_000; i++) {
+      assertThat(visited.add(String.format("%040x", i))).isFalse();
+    }
+    assertThat(visited.size()).isEqualTo(10_000);
+  }
+
+  @Test
+  void shouldFilterVisitedChangesets() {
+    Changeset one = changeset("1");
+    Changeset two = changeset("2");
+    Changeset three = changeset("3");
+
+    assertThat(visited.filter(List.of(two, one))).containsExactly(two, one);
+    assertThat(visited.filter(List.of(three, one))).containsExactly(three);
+  }
+
+  private static Changeset changeset(String id) {
+    return new Changeset(id, 0L, Person.toPerson("trillian"), "commit " + id);
+  }
+}